@@ -1,20 +1,109 @@
 package com.aigc.gallery.config;
 
+import com.aigc.gallery.repository.ImageRepository;
+import com.aigc.gallery.service.ImageService;
+import com.aigc.gallery.service.ImageStoreService;
+import com.aigc.gallery.service.ThumbnailService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.PathResourceResolver;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
     
+    // 按内容命名的文件内容不会变化，浏览器缓存一年且无需重新验证
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+    
+    @Autowired
+    private ImageStoreService imageStoreService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    @Autowired
+    private ImageService imageService;
+    
+    @Autowired
+    private ImageRepository imageRepository;
+    
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // 配置图片文件的访问路径
+        // 引用模式的图片按扫描目录中的路径访问，文件可能被修改，每次使用 Last-Modified 协商；
+        // 只返回已导入的图片，扫描目录中的其他文件（配置、文档等）不可访问
+        registry.addResourceHandler(ImageStoreService.REFERENCE_PREFIX + "**")
+                .addResourceLocations("file:./images/")
+                .setCacheControl(CacheControl.noCache().cachePublic())
+                .resourceChain(false)
+                .addResolver(imageResolver(ImageStoreService.REFERENCE_PREFIX));
+        
+        // 管理目录中的图片按内容哈希命名，以哈希作为 ETag
         registry.addResourceHandler("/images/**")
-                .addResourceLocations("file:./images/");
-                
-        // 配置缩略图的访问路径
-        registry.addResourceHandler("/thumbnails/**")
-                .addResourceLocations("file:./thumbnails/");
+                .addResourceLocations("file:./images/")
+                .setCacheControl(IMMUTABLE)
+                .setEtagGenerator(resource -> baseName(resource.getFilename()))
+                .resourceChain(false)
+                .addResolver(imageResolver(ImageStoreService.URL_PREFIX));
+        
+        // 缩略图按内容（或源文件路径+指纹）命名，以文件名作为 ETag；
+        // 与 /api/images/{id}/thumbnail 一样经过缩略图缓存，被淘汰或按需生成模式下尚未生成的缩略图在访问时生成，
+        // 每次协商都会更新最近访问时间，正在使用的缩略图不会被优先淘汰
+        registry.addResourceHandler(ThumbnailService.URL_PREFIX + "**")
+                .addResourceLocations(thumbnailService.getDirectory().toUri().toString())
+                .setCacheControl(CacheControl.noCache().cachePublic())
+                .setEtagGenerator(resource -> baseName(resource.getFilename()))
+                .resourceChain(false)
+                .addResolver(new PathResourceResolver() {
+                    @Override
+                    protected Resource getResource(String resourcePath, Resource location) {
+                        Path path = imageService.getThumbnail(resourcePath);
+                        if (path == null || !Files.isRegularFile(path)) {
+                            return null;
+                        }
+                        // 缩略图统一为JPEG，旧版本按原图扩展名命名的缩略图也按JPEG返回
+                        return new FileSystemResource(path) {
+                            @Override
+                            public String getFilename() {
+                                return baseName(super.getFilename()) + ".jpg";
+                            }
+                        };
+                    }
+                });
+    }
+    
+    /**
+     * 由图片存储解析实际位置（管理目录或引用的扫描目录）
+     */
+    private PathResourceResolver imageResolver(String urlPrefix) {
+        return new PathResourceResolver() {
+            @Override
+            protected Resource getResource(String resourcePath, Resource location) {
+                // 文件系统位置的资源路径保持URL编码，含空格或非ASCII字符的文件名需先解码
+                String filePath = urlPrefix + UriUtils.decode(resourcePath, StandardCharsets.UTF_8);
+                if (!imageStoreService.isManaged(filePath) && !imageRepository.existsByFilePath(filePath)) {
+                    return null;
+                }
+                Path path = imageStoreService.resolve(filePath);
+                if (path == null || !Files.isRegularFile(path)) {
+                    return null;
+                }
+                return new FileSystemResource(path);
+            }
+        };
+    }
+    
+    private static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
     }
-} 
\ No newline at end of file
+}
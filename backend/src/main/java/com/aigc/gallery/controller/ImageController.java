@@ -1,11 +1,23 @@
 package com.aigc.gallery.controller;
 
+import com.aigc.gallery.model.CacheStats;
 import com.aigc.gallery.model.ImageInfo;
+import com.aigc.gallery.model.ImageServingInfo;
+import com.aigc.gallery.model.ImageSummary;
 import com.aigc.gallery.model.ScanDirectory;
+import com.aigc.gallery.model.ScanJob;
+import com.aigc.gallery.model.StorageMode;
+import com.aigc.gallery.service.DirectoryWatchService;
 import com.aigc.gallery.service.ImageService;
+import com.aigc.gallery.service.ImageServingCache;
+import com.aigc.gallery.service.ImageStoreService;
+import com.aigc.gallery.service.PromptExtractionCache;
+import com.aigc.gallery.service.ScanJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -13,12 +25,14 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 
 @RestController
 @RequestMapping("/api/images")
@@ -28,43 +42,192 @@ public class ImageController {
     @Autowired
     private ImageService imageService;
     
+    @Autowired
+    private ImageStoreService imageStoreService;
+    
+    @Autowired
+    private ScanJobService scanJobService;
+    
+    @Autowired
+    private DirectoryWatchService directoryWatchService;
+    
+    @Autowired
+    private ImageServingCache imageServingCache;
+    
+    @Autowired
+    private PromptExtractionCache promptExtractionCache;
+    
+    /**
+     * 提交后台扫描任务，立即返回任务信息
+     */
     @PostMapping("/scan")
-    public ResponseEntity<Void> scanImages(@RequestParam String basePath) {
-        imageService.setBasePath(basePath);
-        imageService.scanAndUpdateImages();
+    public ResponseEntity<ScanJob> scanImages(@RequestParam String basePath) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(scanJobService.submitPathScan(basePath));
+    }
+    
+    /**
+     * 获取所有扫描任务
+     */
+    @GetMapping("/scan-jobs")
+    public ResponseEntity<List<ScanJob>> getScanJobs() {
+        return ResponseEntity.ok(scanJobService.getJobs());
+    }
+    
+    /**
+     * 获取扫描任务状态
+     */
+    @GetMapping("/scan-jobs/{jobId}")
+    public ResponseEntity<ScanJob> getScanJob(@PathVariable String jobId) {
+        return scanJobService.getJob(jobId)
+            .map(ResponseEntity::ok)
+            .orElse(ResponseEntity.notFound().build());
+    }
+    
+    /**
+     * 订阅扫描任务进度（SSE）
+     */
+    @GetMapping(value = "/scan-jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeScanJob(@PathVariable String jobId) {
+        if (scanJobService.getJob(jobId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(scanJobService.subscribe(jobId));
+    }
+    
+    /**
+     * 取消扫描任务
+     */
+    @DeleteMapping("/scan-jobs/{jobId}")
+    public ResponseEntity<?> cancelScanJob(@PathVariable String jobId) {
+        if (!scanJobService.cancel(jobId)) {
+            return ResponseEntity.notFound().build();
+        }
         return ResponseEntity.ok().build();
     }
     
     @GetMapping("/by-date")
-    public ResponseEntity<Map<String, List<ImageInfo>>> getImagesByDate(Pageable pageable) {
+    public ResponseEntity<Map<String, List<ImageSummary>>> getImagesByDate(Pageable pageable) {
         return ResponseEntity.ok(imageService.getImagesByDate(pageable));
     }
     
+    /**
+     * 时间线：按天（day）或按月（month）统计的图片数量
+     */
+    @GetMapping("/timeline")
+    public ResponseEntity<?> getTimeline(@RequestParam(defaultValue = "day") String granularity) {
+        try {
+            return ResponseEntity.ok(imageService.getTimeline(granularity));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * 分页获取某一天的图片
+     */
+    @GetMapping("/by-date/{date}")
+    public ResponseEntity<Page<ImageSummary>> getImagesOfDate(
+            @PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            Pageable pageable) {
+        return ResponseEntity.ok(imageService.getImagesOfDate(date, pageable));
+    }
+    
+    /**
+     * 游标分页获取图片，按创建时间倒序；首页不传 cursor，之后传上一页返回的 nextCursor
+     * @param date 只返回这一天的图片
+     */
+    @GetMapping("/feed")
+    public ResponseEntity<?> getImageFeed(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return ResponseEntity.ok(imageService.getImageFeed(date, cursor, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * 图片总数，游标分页不返回总数，需要时单独查询
+     */
+    @GetMapping("/count")
+    public ResponseEntity<Map<String, Long>> countImages(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return ResponseEntity.ok(Map.of("count", imageService.countImages(date)));
+    }
+    
     @GetMapping("/by-tag")
-    public ResponseEntity<Map<String, List<ImageInfo>>> getImagesByTag(Pageable pageable) {
+    public ResponseEntity<Map<String, List<ImageSummary>>> getImagesByTag(Pageable pageable) {
         return ResponseEntity.ok(imageService.getImagesByTag(pageable));
     }
     
     @GetMapping("/by-artist")
-    public ResponseEntity<Map<String, List<ImageInfo>>> getImagesByArtist(Pageable pageable) {
+    public ResponseEntity<Map<String, List<ImageSummary>>> getImagesByArtist(Pageable pageable) {
         return ResponseEntity.ok(imageService.getImagesByArtist(pageable));
     }
     
     @GetMapping("/tags")
-    public ResponseEntity<Set<String>> getAllTags() {
+    public ResponseEntity<List<String>> getAllTags() {
         return ResponseEntity.ok(imageService.getAllTags());
     }
     
     @GetMapping("/artists")
-    public ResponseEntity<Set<String>> getAllArtists() {
+    public ResponseEntity<List<String>> getAllArtists() {
         return ResponseEntity.ok(imageService.getAllArtists());
     }
     
+    /**
+     * 标签或画师名称的前缀自动补全，按使用次数排序；prefix 为空时返回最常用的名称
+     * @param type tag 或 artist
+     */
+    @GetMapping("/tags/complete")
+    public ResponseEntity<?> completeTags(
+            @RequestParam(defaultValue = "") String prefix,
+            @RequestParam(defaultValue = "tag") String type,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            return ResponseEntity.ok(imageService.completeTags(type, prefix, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * 搜索图片：q 为标签查询表达式，如 1girl AND (blue sky OR sunset) AND NOT artist:foo；
+     * 只传 tags 时返回包含任一标签的图片
+     */
     @GetMapping("/search")
-    public ResponseEntity<Page<ImageInfo>> searchByTags(
-            @RequestParam Set<String> tags,
+    public ResponseEntity<?> searchByTags(
+            @RequestParam(required = false) Set<String> tags,
+            @RequestParam(required = false) String q,
             Pageable pageable) {
-        return ResponseEntity.ok(imageService.searchByTags(tags, pageable));
+        try {
+            if (q != null && !q.isBlank()) {
+                return ResponseEntity.ok(imageService.searchImages(q, pageable));
+            }
+            if (tags == null || tags.isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Either q or tags is required"));
+            }
+            return ResponseEntity.ok(imageService.searchByTags(tags, pageable));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * 全文搜索提示词：q 支持 "短语" 和 前缀*，in 为 prompt、negative 或 all，结果按相关度排序
+     */
+    @GetMapping("/search/prompt")
+    public ResponseEntity<?> searchPrompts(
+            @RequestParam String q,
+            @RequestParam(name = "in", defaultValue = "all") String field,
+            Pageable pageable) {
+        try {
+            return ResponseEntity.ok(imageService.searchPrompts(q, field, pageable));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
     }
     
     @GetMapping("/{id}")
@@ -74,75 +237,99 @@ public class ImageController {
     
     /**
      * 通过ID获取图片文件
+     * 同一ID在源文件变化后会指向新内容，因此不设为 immutable，由 ETag 和 Last-Modified 协商缓存，未变化时返回 304
      */
     @GetMapping("/{id}/file")
     public ResponseEntity<Resource> getImageFile(@PathVariable Long id) {
         try {
-            ImageInfo imageInfo = imageService.getImageDetail(id);
+            ImageServingInfo imageInfo = imageService.getServingInfo(id);
             if (imageInfo == null) {
                 return ResponseEntity.notFound().build();
             }
             
-            // 去掉路径前缀 "/images/"
-            String fileName = imageInfo.getFilePath().replace("/images/", "");
-            Path filePath = Paths.get("images", fileName);
-            Resource resource = new FileSystemResource(filePath.toFile());
-            
-            if (!resource.exists()) {
+            // 管理目录中的文件按内容哈希分片存放，引用模式指向扫描目录中的原始文件
+            Path filePath = imageStoreService.resolve(imageInfo.getFilePath());
+            if (filePath == null || !Files.isRegularFile(filePath)) {
                 return ResponseEntity.notFound().build();
             }
             
             return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"")
-                .contentType(MediaType.IMAGE_PNG) // 或根据实际图片类型设置
-                .body(resource);
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + imageInfo.getFileName() + "\"")
+                .contentType(imageInfo.getContentType())
+                .eTag(imageInfo.getEtag())
+                .lastModified(Files.getLastModifiedTime(filePath).toMillis())
+                .cacheControl(CacheControl.noCache().cachePublic())
+                .body(new FileSystemResource(filePath));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
     
     /**
-     * 获取缩略图文件
+     * 获取缩略图文件，首次访问或缓存被淘汰后按需生成
+     * 缩略图按内容命名，以文件名作为 ETag，未变化时返回 304
      */
     @GetMapping("/{id}/thumbnail")
     public ResponseEntity<Resource> getThumbnailFile(@PathVariable Long id) {
         try {
-            ImageInfo imageInfo = imageService.getImageDetail(id);
-            if (imageInfo == null || imageInfo.getThumbnailPath() == null) {
-                return ResponseEntity.notFound().build();
-            }
-            
-            // 去掉路径前缀 "/thumbnails/"
-            String fileName = imageInfo.getThumbnailPath().replace("/thumbnails/", "");
-            Path filePath = Paths.get("thumbnails", fileName);
-            Resource resource = new FileSystemResource(filePath.toFile());
-            
-            if (!resource.exists()) {
+            Path filePath = imageService.getThumbnail(id);
+            if (filePath == null || !Files.isRegularFile(filePath)) {
                 return ResponseEntity.notFound().build();
             }
+            String fileName = filePath.getFileName().toString();
             
+            // 缩略图统一为JPEG，旧版本按原图扩展名命名的缩略图也是JPEG
             return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"")
-                .contentType(MediaType.IMAGE_PNG) // 或根据实际图片类型设置
-                .body(resource);
+                .contentType(MediaType.IMAGE_JPEG)
+                .eTag(fileName.substring(0, fileName.lastIndexOf('.')))
+                .lastModified(Files.getLastModifiedTime(filePath).toMillis())
+                .cacheControl(CacheControl.noCache().cachePublic())
+                .body(new FileSystemResource(filePath));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
     
+    /**
+     * 图片文件服务信息缓存的命中统计
+     */
+    @GetMapping("/serving-cache/stats")
+    public ResponseEntity<CacheStats> getServingCacheStats() {
+        return ResponseEntity.ok(imageServingCache.getStats());
+    }
+    
+    /**
+     * 提示词解析结果缓存的命中统计
+     */
+    @GetMapping("/prompt-cache/stats")
+    public ResponseEntity<CacheStats> getPromptCacheStats() {
+        return ResponseEntity.ok(promptExtractionCache.getStats());
+    }
+    
     /**
      * 添加扫描目录
      */
     @PostMapping("/directories")
     public ResponseEntity<?> addScanDirectory(
             @RequestParam String path,
-            @RequestParam(required = false) String description) {
-        Long directoryId = imageService.addScanDirectory(path, description);
+            @RequestParam(required = false) String description,
+            @RequestParam(required = false) StorageMode storageMode) {
+        Long directoryId;
+        try {
+            directoryId = imageService.addScanDirectory(path, description, storageMode);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        }
         if (directoryId == null) {
             return ResponseEntity.badRequest()
                 .body(Map.of("error", "Directory already exists"));
         }
-        return ResponseEntity.ok(Map.of("id", directoryId));
+        
+        // 在后台导入目录中的图片
+        ScanJob job = scanJobService.submitDirectoryScan(directoryId);
+        return ResponseEntity.ok(Map.of("id", directoryId, "job", job));
     }
     
     /**
@@ -158,6 +345,8 @@ public class ImageController {
      */
     @DeleteMapping("/directories/{id}")
     public ResponseEntity<?> removeDirectory(@PathVariable Long id) {
+        directoryWatchService.unwatch(id);
+        scanJobService.cancelDirectoryScan(id);
         boolean success = imageService.removeScanDirectory(id);
         if (!success) {
             return ResponseEntity.notFound().build();
@@ -166,16 +355,31 @@ public class ImageController {
     }
     
     /**
-     * 重新扫描指定目录
+     * 开启或关闭目录监听
+     */
+    @PutMapping("/directories/{id}/watch")
+    public ResponseEntity<?> setDirectoryWatch(@PathVariable Long id, @RequestParam boolean enabled) {
+        try {
+            ScanDirectory directory = imageService.setDirectoryWatch(id, enabled);
+            if (enabled) {
+                directoryWatchService.watch(directory);
+            } else {
+                directoryWatchService.unwatch(id);
+            }
+            return ResponseEntity.ok(directory);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * 重新扫描指定目录，提交后台任务，同一目录已有任务时返回该任务
      */
     @PostMapping("/directories/{id}/rescan")
     public ResponseEntity<?> rescanDirectory(@PathVariable Long id) {
         try {
-            int updatedCount = imageService.rescanDirectory(id);
-            return ResponseEntity.ok(Map.of(
-                "message", "Directory rescanned successfully",
-                "updatedCount", updatedCount
-            ));
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(scanJobService.submitDirectoryScan(id));
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                 .body(Map.of("error", e.getMessage()));
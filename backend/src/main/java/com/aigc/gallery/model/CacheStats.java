@@ -0,0 +1,29 @@
+package com.aigc.gallery.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 内存缓存的命中统计
+ */
+@Data
+@AllArgsConstructor
+public class CacheStats {
+    
+    private int size;
+    
+    private int maxSize;
+    
+    private long hits;
+    
+    private long misses;
+    
+    private long evictions;
+    
+    private long invalidations;
+    
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,19 @@
+package com.aigc.gallery.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页的一页结果，不包含总数
+ */
+@Data
+@AllArgsConstructor
+public class CursorPage<T> {
+    
+    private List<T> content;
+    
+    // 下一页的游标，没有更多数据时为null
+    private String nextCursor;
+}
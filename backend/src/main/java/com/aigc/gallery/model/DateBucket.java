@@ -0,0 +1,17 @@
+package com.aigc.gallery.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 时间线上的一个日期分组及其图片数量
+ */
+@Data
+@AllArgsConstructor
+public class DateBucket {
+    
+    // 按天为 yyyy-MM-dd，按月为 yyyy-MM
+    private String date;
+    
+    private long count;
+}
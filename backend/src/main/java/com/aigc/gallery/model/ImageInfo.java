@@ -7,10 +7,23 @@ import java.util.Set;
 
 @Data
 @Entity
-@Table(name = "image_info")
+@Table(name = "image_info", indexes = {
+    @Index(name = "idx_image_source_path", columnList = "sourcePath"),
+    @Index(name = "idx_image_scan_directory", columnList = "scanDirectoryId"),
+    @Index(name = "idx_image_file_path", columnList = "filePath"),
+    @Index(name = "idx_image_metadata_hash", columnList = "metadataHash"),
+    @Index(name = "idx_image_thumbnail_path", columnList = "thumbnailPath"),
+    // 降序复合索引，按 (createTime, id) 倒序分页时可直接定位并顺序读取
+    @Index(name = "idx_image_create_time_id", columnList = "createTime DESC, id DESC")
+})
 public class ImageInfo {
+    public static final String ID_SEQUENCE = "image_info_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+    
+    // 使用序列生成ID，IDENTITY 会禁用 Hibernate 的 JDBC 批量插入
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
     
     private String fileName;
@@ -29,17 +42,35 @@ public class ImageInfo {
     private Long fileSize;
     private String thumbnailPath;
     
-    @ElementCollection(fetch = FetchType.EAGER)
-    @CollectionTable(name = "image_tags", joinColumns = @JoinColumn(name = "image_id"))
-    @Column(name = "tag")
+    // 图片尺寸（像素）
+    private Integer width;
+    private Integer height;
+    
+    // 源文件信息，用于增量扫描
+    @Column(length = 1024)
+    private String sourcePath;
+    private Long sourceLastModified;
+    private String fingerprint;
+    
+    // 文件内容哈希，管理目录中的文件按此命名
+    private String contentHash;
+    private Long scanDirectoryId;
+    
+    // 标签和画师保存在标签字典中（tag / image_tag_link），导入时由解析结果填充，详情接口单独加载
+    @Transient
     private Set<String> tags;
     
-    @ElementCollection(fetch = FetchType.EAGER)
-    @CollectionTable(name = "image_artists", joinColumns = @JoinColumn(name = "image_id"))
-    @Column(name = "artist")
+    @Transient
     private Set<String> artists;
     
-    @Lob
-    @Column(columnDefinition = "TEXT")
-    private String metadata; // 存储完整的元数据JSON
+    // 完整的元数据保存在 metadata_blob 中，按哈希引用；导入时由解析结果填充，详情接口单独加载
+    @Column(length = 64)
+    private String metadataHash;
+    
+    @Transient
+    private String metadata;
+    
+    // 提取提示词时匹配的元数据格式（A1111、NovelAI、ComfyUI prompt 等）
+    @Column(length = 32)
+    private String metadataFormat;
 } 
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.aigc.gallery.model;
+
+import lombok.Data;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+/**
+ * 返回图片文件和缩略图所需的信息，不包含提示词、元数据等大字段，可长期缓存
+ */
+@Data
+public class ImageServingInfo {
+    
+    private final Long id;
+    
+    private final String fileName;
+    
+    // 图片访问路径，管理目录或引用的扫描目录
+    private final String filePath;
+    
+    private final String thumbnailPath;
+    
+    private final Long fileSize;
+    
+    // 内容哈希，引用模式的图片为文件指纹
+    private final String etag;
+    
+    private final MediaType contentType;
+    
+    public ImageServingInfo(Long id, String fileName, String filePath, String thumbnailPath, Long fileSize,
+                            String etag) {
+        this.id = id;
+        this.fileName = fileName;
+        this.filePath = filePath;
+        this.thumbnailPath = thumbnailPath;
+        this.fileSize = fileSize;
+        this.etag = etag;
+        this.contentType = MediaTypeFactory.getMediaType(filePath).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+}
@@ -0,0 +1,21 @@
+package com.aigc.gallery.model;
+
+/**
+ * 图片源文件状态投影，增量扫描时只加载比较所需的列
+ */
+public interface ImageSourceState {
+    
+    Long getId();
+    
+    String getSourcePath();
+    
+    Long getFileSize();
+    
+    Long getSourceLastModified();
+    
+    String getFingerprint();
+    
+    String getFilePath();
+    
+    String getThumbnailPath();
+}
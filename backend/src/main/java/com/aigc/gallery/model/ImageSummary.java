@@ -0,0 +1,23 @@
+package com.aigc.gallery.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * 图片摘要投影，列表接口只加载网格展示所需的列，提示词、元数据和标签只由详情接口返回
+ */
+public interface ImageSummary {
+    
+    Long getId();
+    
+    String getFileName();
+    
+    String getThumbnailPath();
+    
+    LocalDateTime getCreateTime();
+    
+    Integer getWidth();
+    
+    Integer getHeight();
+    
+    Long getTagCount();
+}
@@ -0,0 +1,34 @@
+package com.aigc.gallery.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 图片与标签字典的关联
+ */
+@Data
+@Entity
+@IdClass(ImageTagLink.Key.class)
+@Table(name = "image_tag_link", indexes = {
+    @Index(name = "idx_image_tag_link_tag", columnList = "tagId")
+})
+public class ImageTagLink {
+    
+    @Id
+    private Long imageId;
+    
+    @Id
+    private Long tagId;
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long imageId;
+        private Long tagId;
+    }
+}
@@ -0,0 +1,15 @@
+package com.aigc.gallery.model;
+
+/**
+ * 增量扫描之前导入的图片投影，这些记录没有源路径和所属扫描目录，按相对路径和文件名与扫描到的文件对应
+ */
+public interface LegacyImage {
+    
+    Long getId();
+    
+    String getRelativePath();
+    
+    String getFileName();
+    
+    Long getFileSize();
+}
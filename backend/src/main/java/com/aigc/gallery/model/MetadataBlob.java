@@ -0,0 +1,27 @@
+package com.aigc.gallery.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * 按内容寻址的原始元数据，deflate 压缩后保存，内容相同的元数据只保存一份
+ * 图片通过 metadataHash 引用，只有详情接口会加载
+ */
+@Data
+@Entity
+@Table(name = "metadata_blob")
+public class MetadataBlob {
+    
+    // 原始元数据 UTF-8 编码的 SHA-256
+    @Id
+    @Column(length = 64)
+    private String hash;
+    
+    // 解压后的字节数
+    @Column(nullable = false)
+    private int rawSize;
+    
+    @Lob
+    @Column(nullable = false)
+    private byte[] data;
+}
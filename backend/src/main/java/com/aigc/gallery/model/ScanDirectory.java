@@ -1,6 +1,8 @@
 package com.aigc.gallery.model;
 
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -34,9 +36,18 @@ public class ScanDirectory {
     // 添加时间
     private LocalDateTime createdTime;
     
+    // 图片入库方式
+    @Enumerated(EnumType.STRING)
+    private StorageMode storageMode;
+    
+    // 是否监听目录变化并自动导入
+    private Boolean watchEnabled;
+    
     public ScanDirectory() {
         this.createdTime = LocalDateTime.now();
         this.imageCount = 0;
+        this.storageMode = StorageMode.COPY;
+        this.watchEnabled = false;
     }
     
     public ScanDirectory(String path) {
@@ -0,0 +1,88 @@
+package com.aigc.gallery.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 后台扫描任务，保存在内存中，用于查询状态和推送进度
+ */
+@Getter
+@Setter
+public class ScanJob {
+    
+    private final String id = UUID.randomUUID().toString();
+    
+    // 扫描目录ID，按路径扫描时为空
+    private final Long directoryId;
+    
+    // 扫描的目录路径
+    private final String path;
+    
+    private volatile ScanJobStatus status = ScanJobStatus.PENDING;
+    
+    private final LocalDateTime createdTime = LocalDateTime.now();
+    
+    private volatile LocalDateTime startTime;
+    
+    private volatile LocalDateTime endTime;
+    
+    private volatile ScanResult result;
+    
+    private volatile String error;
+    
+    @JsonIgnore
+    private final ScanProgress progress = new ScanProgress();
+    
+    public ScanJob(Long directoryId, String path) {
+        this.directoryId = directoryId;
+        this.path = path;
+    }
+    
+    public int getDiscovered() {
+        return progress.getDiscovered();
+    }
+    
+    public int getProcessed() {
+        return progress.getProcessed();
+    }
+    
+    public int getFailed() {
+        return progress.getFailed();
+    }
+    
+    public int getSkipped() {
+        return progress.getSkipped();
+    }
+    
+    /**
+     * 处理速度（图片/秒）
+     */
+    public double getThroughput() {
+        if (startTime == null) {
+            return 0;
+        }
+        LocalDateTime end = endTime != null ? endTime : LocalDateTime.now();
+        long millis = Duration.between(startTime, end).toMillis();
+        return millis > 0 ? progress.getProcessed() * 1000.0 / millis : 0;
+    }
+    
+    /**
+     * 预计剩余时间（秒），无法估计时为空
+     */
+    public Long getEtaSeconds() {
+        if (status.isFinished()) {
+            return 0L;
+        }
+        double throughput = getThroughput();
+        if (throughput <= 0) {
+            return null;
+        }
+        int remaining = progress.getDiscovered() - progress.getProcessed() - progress.getFailed() - progress.getSkipped();
+        return (long) Math.ceil(Math.max(remaining, 0) / throughput);
+    }
+}
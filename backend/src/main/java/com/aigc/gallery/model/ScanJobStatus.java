@@ -0,0 +1,16 @@
+package com.aigc.gallery.model;
+
+/**
+ * 扫描任务状态
+ */
+public enum ScanJobStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED;
+    
+    public boolean isFinished() {
+        return this == COMPLETED || this == FAILED || this == CANCELLED;
+    }
+}
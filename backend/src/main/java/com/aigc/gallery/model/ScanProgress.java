@@ -0,0 +1,76 @@
+package com.aigc.gallery.model;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 扫描进度，扫描线程更新计数，任务线程读取并可请求取消
+ */
+public class ScanProgress {
+    
+    // 发现的图片文件数量
+    private final AtomicInteger discovered = new AtomicInteger();
+    
+    // 已处理完成的图片数量
+    private final AtomicInteger processed = new AtomicInteger();
+    
+    // 处理失败的图片数量
+    private final AtomicInteger failed = new AtomicInteger();
+    
+    // 未变化而跳过的图片数量
+    private final AtomicInteger skipped = new AtomicInteger();
+    
+    private volatile boolean cancelled;
+    
+    public void addDiscovered(int count) {
+        discovered.addAndGet(count);
+    }
+    
+    public void incrementProcessed() {
+        processed.incrementAndGet();
+    }
+    
+    public void incrementFailed() {
+        failed.incrementAndGet();
+    }
+    
+    public void addSkipped(int count) {
+        skipped.addAndGet(count);
+    }
+    
+    public int getDiscovered() {
+        return discovered.get();
+    }
+    
+    public int getProcessed() {
+        return processed.get();
+    }
+    
+    public int getFailed() {
+        return failed.get();
+    }
+    
+    public int getSkipped() {
+        return skipped.get();
+    }
+    
+    /**
+     * 请求取消，扫描在下一个检查点停止
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * 已请求取消时抛出 CancellationException
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Scan cancelled");
+        }
+    }
+}
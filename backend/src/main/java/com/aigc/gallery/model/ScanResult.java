@@ -0,0 +1,26 @@
+package com.aigc.gallery.model;
+
+import lombok.Data;
+
+/**
+ * 目录扫描结果统计
+ */
+@Data
+public class ScanResult {
+    
+    // 新增的图片数量
+    private int added;
+    
+    // 内容发生变化并重新解析的图片数量
+    private int changed;
+    
+    // 源文件已删除的图片数量
+    private int removed;
+    
+    // 未变化而跳过的图片数量
+    private int unchanged;
+    
+    public int getUpdatedCount() {
+        return added + changed;
+    }
+}
@@ -0,0 +1,22 @@
+package com.aigc.gallery.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.file.Path;
+
+/**
+ * 目录遍历得到的图片文件，只包含无需打开文件即可获得的属性
+ */
+@Data
+@AllArgsConstructor
+public class ScannedFile {
+    
+    private Path path;
+    
+    // 文件大小（字节）
+    private long size;
+    
+    // 最后修改时间（毫秒）
+    private long lastModified;
+}
@@ -0,0 +1,21 @@
+package com.aigc.gallery.model;
+
+/**
+ * 扫描目录中图片的入库方式
+ */
+public enum StorageMode {
+    /**
+     * 复制到管理目录
+     */
+    COPY,
+    
+    /**
+     * 在管理目录中创建硬链接，不在同一文件系统时退回复制
+     */
+    HARDLINK,
+    
+    /**
+     * 不复制，直接从扫描目录读取原始文件
+     */
+    REFERENCE
+}
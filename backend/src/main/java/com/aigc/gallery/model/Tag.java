@@ -0,0 +1,33 @@
+package com.aigc.gallery.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * 标签字典，每个标签或画师只保存一次，图片通过 image_tag_link 引用其ID
+ */
+@Data
+@Entity
+@Table(name = "tag", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_tag_type_name", columnNames = {"type", "name"})
+}, indexes = {
+    @Index(name = "idx_tag_type_usage", columnList = "type, usageCount")
+})
+public class Tag {
+    public static final int MAX_NAME_LENGTH = 255;
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private TagType type;
+    
+    @Column(nullable = false, length = MAX_NAME_LENGTH)
+    private String name;
+    
+    // 引用该标签的图片数量，导入和删除图片时维护
+    @Column(nullable = false)
+    private long usageCount;
+}
@@ -0,0 +1,17 @@
+package com.aigc.gallery.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 标签或画师的自动补全候选
+ */
+@Data
+@AllArgsConstructor
+public class TagCompletion {
+    
+    private String name;
+    
+    // 使用该标签的图片数量
+    private long usageCount;
+}
@@ -0,0 +1,16 @@
+package com.aigc.gallery.model;
+
+/**
+ * 标签字典中的条目类型
+ */
+public enum TagType {
+    /**
+     * 普通标签
+     */
+    TAG,
+    
+    /**
+     * 画师
+     */
+    ARTIST
+}
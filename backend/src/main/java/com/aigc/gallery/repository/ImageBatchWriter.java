@@ -0,0 +1,148 @@
+package com.aigc.gallery.repository;
+
+import com.aigc.gallery.model.ImageInfo;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 图片批量写入
+ * 每次调用在独立事务中提交，按 JDBC 批大小定期 flush/clear，避免持久化上下文无限增长
+ * 元数据写入 metadata_blob，覆盖或删除后不再被引用的元数据一并删除
+ */
+@Slf4j
+@Repository
+public class ImageBatchWriter implements SmartInitializingSingleton {
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private TagDictionary tagDictionary;
+    
+    @Autowired
+    private MetadataBlobStore metadataBlobStore;
+    
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize;
+    
+    /**
+     * 批量保存图片，id为空的新增，否则覆盖已有记录
+     */
+    public void saveAll(List<ImageInfo> images) {
+        if (images.isEmpty()) {
+            return;
+        }
+        // 字典中还没有的标签先在独立事务中写入
+        List<Set<Long>> tagIds = tagDictionary.resolve(images);
+        Map<String, MetadataBlobStore.Blob> blobs = metadataBlobStore.prepare(images);
+        List<Long> replacedIds = images.stream()
+            .map(ImageInfo::getId)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        newTransaction().executeWithoutResult(status -> {
+            Set<String> replacedHashes = metadataBlobStore.findHashes(replacedIds);
+            // 先于图片记录一次锁定要用到的元数据行，与删除时的加锁顺序一致
+            Set<String> lockedHashes = new HashSet<>(blobs.keySet());
+            lockedHashes.addAll(replacedHashes);
+            metadataBlobStore.lock(lockedHashes);
+            metadataBlobStore.insert(blobs);
+            for (int i = 0; i < images.size(); i++) {
+                ImageInfo image = images.get(i);
+                if (image.getId() == null) {
+                    entityManager.persist(image);
+                } else {
+                    entityManager.merge(image);
+                }
+                if ((i + 1) % batchSize == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+            
+            // 覆盖的记录先移除原有的标签关联
+            tagDictionary.unlink(replacedIds);
+            tagDictionary.link(images, tagIds);
+            metadataBlobStore.deleteUnreferenced(replacedHashes);
+        });
+    }
+    
+    /**
+     * 批量删除图片及其标签、画师关联
+     */
+    public void deleteAllById(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        newTransaction().executeWithoutResult(status -> {
+            Set<String> hashes = metadataBlobStore.findHashes(ids);
+            metadataBlobStore.lock(hashes);
+            tagDictionary.unlink(ids);
+            int count = 0;
+            for (Long id : ids) {
+                ImageInfo image = entityManager.find(ImageInfo.class, id);
+                if (image != null) {
+                    entityManager.remove(image);
+                }
+                if (++count % batchSize == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+            metadataBlobStore.deleteUnreferenced(hashes);
+        });
+    }
+    
+    /**
+     * 在 Web 服务器启动和扫描任务开始之前调整序列，新增的图片不会使用已有的ID
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        alignImageSequence();
+    }
+    
+    /**
+     * 由 IDENTITY 切换到序列生成ID后，确保序列起点大于已有的最大ID
+     */
+    public void alignImageSequence() {
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM image_info", Long.class);
+        Long nextValue = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR " + ImageInfo.ID_SEQUENCE, Long.class);
+        if (maxId != null && nextValue != null && nextValue <= maxId + ImageInfo.ID_ALLOCATION_SIZE) {
+            long restart = maxId + ImageInfo.ID_ALLOCATION_SIZE + 1;
+            jdbcTemplate.execute("ALTER SEQUENCE " + ImageInfo.ID_SEQUENCE + " RESTART WITH " + restart);
+            log.info("Image id sequence restarted at {}", restart);
+        }
+    }
+    
+    private TransactionTemplate newTransaction() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
+    }
+}
@@ -1,28 +1,161 @@
 package com.aigc.gallery.repository;
 
 import com.aigc.gallery.model.ImageInfo;
+import com.aigc.gallery.model.ImageServingInfo;
+import com.aigc.gallery.model.ImageSummary;
+import com.aigc.gallery.model.ImageSourceState;
+import com.aigc.gallery.model.LegacyImage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.Set;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ImageRepository extends JpaRepository<ImageInfo, Long> {
     
-    @Query("SELECT DISTINCT t FROM ImageInfo i JOIN i.tags t")
-    Set<String> findAllTags();
+    // 列表接口使用的摘要列，不包含提示词、元数据等大字段
+    String SUMMARY_SELECT = "SELECT i.id AS id, i.fileName AS fileName, i.thumbnailPath AS thumbnailPath, " +
+        "i.createTime AS createTime, i.width AS width, i.height AS height, " +
+        "(SELECT COUNT(l) FROM ImageTagLink l JOIN Tag t ON t.id = l.tagId " +
+        "WHERE l.imageId = i.id AND t.type = com.aigc.gallery.model.TagType.TAG) AS tagCount " +
+        "FROM ImageInfo i ";
     
-    @Query("SELECT DISTINCT a FROM ImageInfo i JOIN i.artists a")
-    Set<String> findAllArtists();
+    /**
+     * 按天统计图片数量，最新的日期在前
+     */
+    @Query("SELECT CAST(i.createTime AS LocalDate), COUNT(i) FROM ImageInfo i " +
+           "WHERE i.createTime IS NOT NULL GROUP BY CAST(i.createTime AS LocalDate) " +
+           "ORDER BY CAST(i.createTime AS LocalDate) DESC")
+    List<Object[]> countByDay();
+    
+    /**
+     * 按月统计图片数量，最新的月份在前
+     */
+    @Query("SELECT YEAR(i.createTime), MONTH(i.createTime), COUNT(i) FROM ImageInfo i " +
+           "WHERE i.createTime IS NOT NULL GROUP BY YEAR(i.createTime), MONTH(i.createTime) " +
+           "ORDER BY YEAR(i.createTime) DESC, MONTH(i.createTime) DESC")
+    List<Object[]> countByMonth();
+    
+    /**
+     * 分页获取图片摘要
+     */
+    @Query(value = SUMMARY_SELECT, countQuery = "SELECT COUNT(i) FROM ImageInfo i")
+    Page<ImageSummary> findAllSummaries(Pageable pageable);
+    
+    /**
+     * 查询创建时间在 [start, end) 范围内的图片摘要，走 createTime 索引的范围扫描
+     */
+    @Query(value = SUMMARY_SELECT + "WHERE i.createTime >= :start AND i.createTime < :end",
+           countQuery = "SELECT COUNT(i) FROM ImageInfo i WHERE i.createTime >= :start AND i.createTime < :end")
+    Page<ImageSummary> findSummariesByCreateTimeRange(@Param("start") LocalDateTime start,
+                                                      @Param("end") LocalDateTime end,
+                                                      Pageable pageable);
+    
+    /**
+     * 游标分页：取创建时间不早于 lower、且排在 (time, id) 之后的图片摘要，按 (createTime, id) 倒序
+     * createTime <= :time 使查询可以在 (createTime, id) 降序索引上直接定位，与页码深度无关
+     */
+    @Query(SUMMARY_SELECT + "WHERE i.createTime >= :lower AND i.createTime <= :time " +
+           "AND (i.createTime < :time OR i.id < :id) ORDER BY i.createTime DESC, i.id DESC")
+    List<ImageSummary> findSummariesBefore(@Param("lower") LocalDateTime lower,
+                                           @Param("time") LocalDateTime time,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
+    
+    /**
+     * 统计创建时间在 [start, end) 范围内的图片数量
+     */
+    @Query("SELECT COUNT(i) FROM ImageInfo i WHERE i.createTime >= :start AND i.createTime < :end")
+    long countByCreateTimeRange(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+    
+    /**
+     * 按ID获取图片摘要
+     */
+    @Query(SUMMARY_SELECT + "WHERE i.id IN :ids")
+    List<ImageSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * 获取返回图片文件所需的信息，引用模式的图片没有内容哈希，以文件指纹作为校验值
+     */
+    @Query("SELECT new com.aigc.gallery.model.ImageServingInfo(i.id, i.fileName, i.filePath, i.thumbnailPath, " +
+           "i.fileSize, COALESCE(i.contentHash, i.fingerprint)) FROM ImageInfo i WHERE i.id = :id")
+    Optional<ImageServingInfo> findServingInfo(@Param("id") Long id);
     
-    Page<ImageInfo> findByTagsIn(Set<String> tags, Pageable pageable);
-
     /**
      * 根据文件路径查找图片
      */
     Optional<ImageInfo> findByFilePath(String filePath);
-} 
\ No newline at end of file
+    
+    /**
+     * 统计引用同一文件的图片数量
+     */
+    long countByFilePath(String filePath);
+    
+    /**
+     * 是否有图片引用该文件
+     */
+    boolean existsByFilePath(String filePath);
+    
+    /**
+     * 统计引用同一缩略图的图片数量
+     */
+    long countByThumbnailPath(String thumbnailPath);
+    
+    /**
+     * 查找引用该缩略图的一张图片，没有时返回null
+     */
+    @Query("SELECT MIN(i.id) FROM ImageInfo i WHERE i.thumbnailPath = :thumbnailPath")
+    Long findIdByThumbnailPath(@Param("thumbnailPath") String thumbnailPath);
+    
+    /**
+     * 获取目录下所有图片的源文件状态
+     */
+    @Query("SELECT i.id AS id, i.sourcePath AS sourcePath, i.fileSize AS fileSize, " +
+           "i.sourceLastModified AS sourceLastModified, i.fingerprint AS fingerprint, " +
+           "i.filePath AS filePath, i.thumbnailPath AS thumbnailPath " +
+           "FROM ImageInfo i WHERE i.scanDirectoryId = :directoryId")
+    List<ImageSourceState> findSourceStatesByScanDirectoryId(@Param("directoryId") Long directoryId);
+    
+    /**
+     * 获取目录下指定源文件的状态
+     */
+    @Query("SELECT i.id AS id, i.sourcePath AS sourcePath, i.fileSize AS fileSize, " +
+           "i.sourceLastModified AS sourceLastModified, i.fingerprint AS fingerprint, " +
+           "i.filePath AS filePath, i.thumbnailPath AS thumbnailPath " +
+           "FROM ImageInfo i WHERE i.scanDirectoryId = :directoryId AND i.sourcePath = :sourcePath")
+    Optional<ImageSourceState> findSourceState(@Param("directoryId") Long directoryId,
+                                               @Param("sourcePath") String sourcePath);
+    
+    /**
+     * 获取增量扫描之前导入、还没有源路径和所属扫描目录的图片
+     */
+    @Query("SELECT i.id AS id, i.relativePath AS relativePath, i.fileName AS fileName, i.fileSize AS fileSize " +
+           "FROM ImageInfo i WHERE i.scanDirectoryId IS NULL AND i.sourcePath IS NULL")
+    List<LegacyImage> findLegacyImages();
+    
+    /**
+     * 为旧记录补充源路径和所属扫描目录
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageInfo i SET i.scanDirectoryId = :directoryId, i.sourcePath = :sourcePath WHERE i.id = :id")
+    int assignSource(@Param("id") Long id, @Param("directoryId") Long directoryId,
+                     @Param("sourcePath") String sourcePath);
+    
+    /**
+     * 更新源文件修改时间（内容未变化时使用）
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageInfo i SET i.sourceLastModified = :lastModified WHERE i.id = :id")
+    int updateSourceLastModified(@Param("id") Long id, @Param("lastModified") Long lastModified);
+}
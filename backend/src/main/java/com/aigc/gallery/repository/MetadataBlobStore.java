@@ -0,0 +1,265 @@
+package com.aigc.gallery.repository;
+
+import com.aigc.gallery.model.ImageInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 原始元数据的去重压缩存储
+ * 元数据按 SHA-256 寻址保存在 metadata_blob 中，同一批次内嵌相同 workflow 的图片共享一份；
+ * image_info 只保存哈希，分页和列表查询读取的行不再包含元数据
+ */
+@Slf4j
+@Repository
+public class MetadataBlobStore implements SmartInitializingSingleton {
+    private static final int IN_CLAUSE_SIZE = 1000;
+    private static final int MIGRATION_BATCH_SIZE = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 计算图片元数据的哈希并压缩，设置到 metadataHash；本批中内容相同的元数据只压缩一次
+     * 压缩较耗CPU，在写入事务之外调用
+     * @return 哈希到压缩数据的映射，交给 {@link #insert(Map)} 写入
+     */
+    public Map<String, Blob> prepare(List<ImageInfo> images) {
+        Map<String, Blob> blobs = new LinkedHashMap<>();
+        for (ImageInfo image : images) {
+            String metadata = image.getMetadata();
+            if (metadata == null) {
+                image.setMetadataHash(null);
+                continue;
+            }
+            byte[] raw = metadata.getBytes(StandardCharsets.UTF_8);
+            String hash = hash(raw);
+            image.setMetadataHash(hash);
+            if (!blobs.containsKey(hash)) {
+                blobs.put(hash, new Blob(raw.length, compress(raw)));
+            }
+        }
+        return blobs;
+    }
+
+    /**
+     * 锁定元数据行直到事务结束，需在事务中调用
+     * 写入时跳过已存在的元数据、删除时检查是否仍被引用，两者都先锁定，
+     * 避免删除的事务看不到另一个事务尚未提交的引用而删除其正要使用的元数据；按哈希顺序加锁避免死锁
+     * @return 其中已存在的哈希
+     */
+    public Set<String> lock(Collection<String> candidates) {
+        Set<String> existing = new HashSet<>();
+        NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        List<String> hashes = new ArrayList<>(new TreeSet<>(candidates));
+        for (int from = 0; from < hashes.size(); from += IN_CLAUSE_SIZE) {
+            namedTemplate.query("SELECT hash FROM metadata_blob WHERE hash IN (:hashes) ORDER BY hash FOR UPDATE",
+                Map.of("hashes", hashes.subList(from, Math.min(from + IN_CLAUSE_SIZE, hashes.size()))),
+                rs -> { existing.add(rs.getString(1)); });
+        }
+        return existing;
+    }
+
+    /**
+     * 写入数据库中还没有的元数据，已存在的元数据锁定到事务结束，需在事务中调用
+     */
+    public void insert(Map<String, Blob> blobs) {
+        if (blobs.isEmpty()) {
+            return;
+        }
+        Set<String> existing = lock(blobs.keySet());
+
+        List<Object[]> rows = new ArrayList<>();
+        new TreeMap<>(blobs).forEach((hash, blob) -> {
+            if (!existing.contains(hash)) {
+                rows.add(new Object[]{hash, blob.rawSize(), blob.data()});
+            }
+        });
+        // 并发导入相同内容时 MERGE 不会因主键冲突失败
+        jdbcTemplate.batchUpdate("MERGE INTO metadata_blob (hash, raw_size, data) KEY (hash) VALUES (?, ?, ?)", rows);
+    }
+
+    /**
+     * 加载元数据
+     * @return 哈希为空或不存在时返回null
+     */
+    public String load(String hash) {
+        if (hash == null) {
+            return null;
+        }
+        List<String> result = jdbcTemplate.query("SELECT raw_size, data FROM metadata_blob WHERE hash = ?",
+            (rs, rowNum) -> new String(decompress(rs.getBytes(2), rs.getInt(1)), StandardCharsets.UTF_8), hash);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * 图片当前引用的元数据哈希
+     */
+    public Set<String> findHashes(Collection<Long> imageIds) {
+        Set<String> hashes = new HashSet<>();
+        if (imageIds.isEmpty()) {
+            return hashes;
+        }
+        NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        List<Long> ids = new ArrayList<>(imageIds);
+        for (int from = 0; from < ids.size(); from += IN_CLAUSE_SIZE) {
+            namedTemplate.query("SELECT DISTINCT metadata_hash FROM image_info WHERE id IN (:ids) AND metadata_hash IS NOT NULL",
+                Map.of("ids", ids.subList(from, Math.min(from + IN_CLAUSE_SIZE, ids.size()))),
+                rs -> { hashes.add(rs.getString(1)); });
+        }
+        return hashes;
+    }
+
+    /**
+     * 删除不再被任何图片引用的元数据，先锁定再检查引用，需在事务中调用
+     */
+    public void deleteUnreferenced(Collection<String> candidates) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        // 等待正在写入这些元数据的事务提交，之后才能看到它们的引用
+        List<String> hashes = new ArrayList<>(lock(candidates));
+        NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        for (int from = 0; from < hashes.size(); from += IN_CLAUSE_SIZE) {
+            namedTemplate.update("DELETE FROM metadata_blob b WHERE b.hash IN (:hashes) " +
+                    "AND NOT EXISTS (SELECT 1 FROM image_info i WHERE i.metadata_hash = b.hash)",
+                Map.of("hashes", hashes.subList(from, Math.min(from + IN_CLAUSE_SIZE, hashes.size()))));
+        }
+    }
+
+    /**
+     * 在 Web 服务器启动和定时任务注册之前完成迁移，请求和导入不会读写迁移中的表
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        migrateInlineMetadata();
+    }
+
+    /**
+     * 把旧版本保存在 image_info.metadata 中的元数据迁移到 metadata_blob，迁移完成后删除该列
+     * 每批在独立事务中提交，中断后重启可继续迁移
+     */
+    public void migrateInlineMetadata() {
+        if (!columnExists("IMAGE_INFO", "METADATA")) {
+            return;
+        }
+
+        log.info("Migrating inline metadata to metadata_blob");
+        long start = System.currentTimeMillis();
+        int migrated = 0;
+        long lastId = Long.MIN_VALUE;
+        while (true) {
+            List<Object[]> rows = jdbcTemplate.query(
+                "SELECT id, metadata FROM image_info WHERE id > ? AND metadata IS NOT NULL ORDER BY id LIMIT " + MIGRATION_BATCH_SIZE,
+                (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getString(2)}, lastId);
+            if (rows.isEmpty()) {
+                break;
+            }
+            lastId = (Long) rows.get(rows.size() - 1)[0];
+
+            Map<String, Blob> blobs = new LinkedHashMap<>();
+            List<Object[]> updates = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                byte[] raw = ((String) row[1]).getBytes(StandardCharsets.UTF_8);
+                String hash = hash(raw);
+                if (!blobs.containsKey(hash)) {
+                    blobs.put(hash, new Blob(raw.length, compress(raw)));
+                }
+                updates.add(new Object[]{hash, row[0]});
+            }
+            newTransaction().executeWithoutResult(status -> {
+                insert(blobs);
+                jdbcTemplate.batchUpdate("UPDATE image_info SET metadata_hash = ?, metadata = NULL WHERE id = ?", updates);
+            });
+            migrated += rows.size();
+        }
+        jdbcTemplate.execute("ALTER TABLE image_info DROP COLUMN metadata");
+        log.info("Migrated metadata of {} images to metadata_blob in {} ms", migrated, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 压缩后的元数据
+     * @param rawSize 解压后的字节数
+     */
+    public record Blob(int rawSize, byte[] data) {
+    }
+
+    private boolean columnExists(String table, String column) {
+        Integer count = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME = ? AND COLUMN_NAME = ?",
+            Integer.class, table, column);
+        return count != null && count > 0;
+    }
+
+    private static String hash(byte[] raw) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(raw));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] data, int rawSize) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[rawSize];
+            int length = 0;
+            while (length < rawSize && !inflater.finished()) {
+                int read = inflater.inflate(raw, length, rawSize - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != rawSize) {
+                throw new IllegalStateException("Corrupted metadata blob");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted metadata blob", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private TransactionTemplate newTransaction() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
+    }
+}
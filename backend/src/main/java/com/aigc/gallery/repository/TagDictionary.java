@@ -0,0 +1,235 @@
+package com.aigc.gallery.repository;
+
+import com.aigc.gallery.model.ImageInfo;
+import com.aigc.gallery.model.Tag;
+import com.aigc.gallery.model.TagType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+
+/**
+ * 标签字典的写入：标签名到ID的映射、图片与标签的关联以及使用次数的维护
+ * 字典常驻内存，新标签在独立事务中写入；关联和使用次数在调用方的事务中更新
+ */
+@Slf4j
+@Repository
+public class TagDictionary implements SmartInitializingSingleton {
+    private static final int IN_CLAUSE_SIZE = 1000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 类型 -> 标签名 -> 标签ID
+    private final Map<TagType, Map<String, Long>> dictionary = new EnumMap<>(TagType.class);
+
+    private boolean loaded;
+
+    /**
+     * 把图片的标签和画师解析为字典ID，字典中没有的先写入字典
+     * 超过字段长度的名称（通常是没有逗号分隔的长段文字）从图片的标签中去掉，不写入字典
+     * @return 与 images 顺序一致的标签ID集合
+     */
+    public synchronized List<Set<Long>> resolve(List<ImageInfo> images) {
+        if (!loaded) {
+            load();
+        }
+
+        Map<TagType, Set<String>> missing = new EnumMap<>(TagType.class);
+        for (ImageInfo image : images) {
+            removeOversized(image.getTags(), image);
+            removeOversized(image.getArtists(), image);
+            collectMissing(TagType.TAG, image.getTags(), missing);
+            collectMissing(TagType.ARTIST, image.getArtists(), missing);
+        }
+        if (!missing.isEmpty()) {
+            insert(missing);
+        }
+
+        List<Set<Long>> result = new ArrayList<>(images.size());
+        for (ImageInfo image : images) {
+            Set<Long> ids = new HashSet<>();
+            addIds(TagType.TAG, image.getTags(), ids);
+            addIds(TagType.ARTIST, image.getArtists(), ids);
+            result.add(ids);
+        }
+        return result;
+    }
+
+    /**
+     * 写入图片与标签的关联并增加使用次数，需在事务中调用
+     * @param tagIds 由 {@link #resolve(List)} 得到，与 images 顺序一致
+     */
+    public void link(List<ImageInfo> images, List<Set<Long>> tagIds) {
+        List<Object[]> links = new ArrayList<>();
+        Map<Long, Integer> deltas = new TreeMap<>();
+        for (int i = 0; i < images.size(); i++) {
+            Long imageId = images.get(i).getId();
+            for (Long tagId : tagIds.get(i)) {
+                links.add(new Object[]{imageId, tagId});
+                deltas.merge(tagId, 1, Integer::sum);
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO image_tag_link (image_id, tag_id) VALUES (?, ?)", links);
+        updateUsageCounts(deltas);
+    }
+
+    /**
+     * 删除图片与标签的关联并减少使用次数，需在事务中调用
+     */
+    public void unlink(Collection<Long> imageIds) {
+        if (imageIds.isEmpty()) {
+            return;
+        }
+        NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        List<Long> ids = new ArrayList<>(imageIds);
+        Map<Long, Integer> deltas = new TreeMap<>();
+        for (int from = 0; from < ids.size(); from += IN_CLAUSE_SIZE) {
+            Map<String, Object> params = Map.of("ids", ids.subList(from, Math.min(from + IN_CLAUSE_SIZE, ids.size())));
+            namedTemplate.query("SELECT tag_id, COUNT(*) FROM image_tag_link WHERE image_id IN (:ids) GROUP BY tag_id",
+                params, rs -> { deltas.merge(rs.getLong(1), -rs.getInt(2), Integer::sum); });
+            namedTemplate.update("DELETE FROM image_tag_link WHERE image_id IN (:ids)", params);
+        }
+        updateUsageCounts(deltas);
+    }
+
+    /**
+     * 在 Web 服务器启动、定时任务注册和索引重建之前完成迁移，
+     * 导入不会与迁移并发更新关联和使用次数，索引也不会读到迁移一半的数据
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        migrateElementCollections();
+    }
+
+    /**
+     * 把旧版本按图片逐行保存的 image_tags / image_artists 迁移到标签字典，迁移完成后删除旧表
+     */
+    public synchronized void migrateElementCollections() {
+        boolean hasTags = tableExists("IMAGE_TAGS");
+        boolean hasArtists = tableExists("IMAGE_ARTISTS");
+        if (!hasTags && !hasArtists) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        newTransaction().executeWithoutResult(status -> {
+            if (hasTags) {
+                migrate("image_tags", "tag", TagType.TAG);
+            }
+            if (hasArtists) {
+                migrate("image_artists", "artist", TagType.ARTIST);
+            }
+            jdbcTemplate.update("UPDATE tag t SET usage_count = " +
+                "(SELECT COUNT(*) FROM image_tag_link l WHERE l.tag_id = t.id)");
+        });
+        jdbcTemplate.execute("DROP TABLE IF EXISTS image_tags");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS image_artists");
+        loaded = false;
+        log.info("Migrated image tags to tag dictionary in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private void migrate(String table, String column, TagType type) {
+        jdbcTemplate.update("INSERT INTO tag (type, name, usage_count) " +
+            "SELECT DISTINCT ?, o." + column + ", 0 FROM " + table + " o WHERE o." + column + " IS NOT NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM tag t WHERE t.type = ? AND t.name = o." + column + ")",
+            type.name(), type.name());
+        jdbcTemplate.update("INSERT INTO image_tag_link (image_id, tag_id) " +
+            "SELECT DISTINCT o.image_id, t.id FROM " + table + " o JOIN tag t ON t.type = ? AND t.name = o." + column + " " +
+            "WHERE NOT EXISTS (SELECT 1 FROM image_tag_link l WHERE l.image_id = o.image_id AND l.tag_id = t.id)",
+            type.name());
+    }
+
+    private boolean tableExists(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = ?", Integer.class, table);
+        return count != null && count > 0;
+    }
+
+    private void load() {
+        dictionary.clear();
+        jdbcTemplate.query("SELECT id, type, name FROM tag", rs -> {
+            dictionary.computeIfAbsent(TagType.valueOf(rs.getString(2)), k -> new HashMap<>())
+                .put(rs.getString(3), rs.getLong(1));
+        });
+        loaded = true;
+    }
+
+    private static void removeOversized(Set<String> names, ImageInfo image) {
+        if (names != null && names.removeIf(name -> name.length() > Tag.MAX_NAME_LENGTH)) {
+            log.debug("Skipped tags longer than {} characters: {}", Tag.MAX_NAME_LENGTH, image.getSourcePath());
+        }
+    }
+
+    private void collectMissing(TagType type, Set<String> names, Map<TagType, Set<String>> missing) {
+        if (names == null) {
+            return;
+        }
+        Map<String, Long> ids = dictionary.getOrDefault(type, Collections.emptyMap());
+        for (String name : names) {
+            if (!ids.containsKey(name)) {
+                missing.computeIfAbsent(type, k -> new LinkedHashSet<>()).add(name);
+            }
+        }
+    }
+
+    private void addIds(TagType type, Set<String> names, Set<Long> ids) {
+        if (names != null) {
+            Map<String, Long> typeIds = dictionary.get(type);
+            names.forEach(name -> ids.add(typeIds.get(name)));
+        }
+    }
+
+    /**
+     * 新标签在独立事务中提交，保证内存字典中的ID在数据库中一定存在
+     */
+    private void insert(Map<TagType, Set<String>> missing) {
+        Map<TagType, Map<String, Long>> inserted = new EnumMap<>(TagType.class);
+        newTransaction().executeWithoutResult(status -> missing.forEach((type, names) -> {
+            for (String name : names) {
+                KeyHolder keyHolder = new GeneratedKeyHolder();
+                jdbcTemplate.update(connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO tag (type, name, usage_count) VALUES (?, ?, 0)", new String[]{"id"});
+                    statement.setString(1, type.name());
+                    statement.setString(2, name);
+                    return statement;
+                }, keyHolder);
+                inserted.computeIfAbsent(type, k -> new HashMap<>()).put(name, keyHolder.getKey().longValue());
+            }
+        }));
+        inserted.forEach((type, ids) -> dictionary.computeIfAbsent(type, k -> new HashMap<>()).putAll(ids));
+    }
+
+    /**
+     * 按标签ID顺序更新使用次数，并发事务以相同顺序加锁
+     */
+    private void updateUsageCounts(Map<Long, Integer> deltas) {
+        List<Object[]> updates = new ArrayList<>(deltas.size());
+        deltas.forEach((tagId, delta) -> {
+            if (delta != 0) {
+                updates.add(new Object[]{delta, tagId});
+            }
+        });
+        jdbcTemplate.batchUpdate("UPDATE tag SET usage_count = usage_count + ? WHERE id = ?", updates);
+    }
+
+    private TransactionTemplate newTransaction() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
+    }
+}
@@ -0,0 +1,35 @@
+package com.aigc.gallery.repository;
+
+import com.aigc.gallery.model.Tag;
+import com.aigc.gallery.model.TagType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface TagRepository extends JpaRepository<Tag, Long> {
+    
+    /**
+     * 获取仍被图片引用的标签名，按使用次数从高到低排序
+     */
+    @Query("SELECT t.name FROM Tag t WHERE t.type = :type AND t.usageCount > 0 " +
+           "ORDER BY t.usageCount DESC, t.name")
+    List<String> findNamesByPopularity(@Param("type") TagType type);
+    
+    /**
+     * 获取图片的所有标签和画师
+     */
+    @Query("SELECT t FROM ImageTagLink l JOIN Tag t ON t.id = l.tagId WHERE l.imageId = :imageId")
+    List<Tag> findByImageId(@Param("imageId") Long imageId);
+    
+    /**
+     * 获取图片的 (ID, 标签名) 对
+     */
+    @Query("SELECT l.imageId, t.name FROM ImageTagLink l JOIN Tag t ON t.id = l.tagId " +
+           "WHERE t.type = :type AND l.imageId IN :imageIds")
+    List<Object[]> findNamesByImageIds(@Param("type") TagType type, @Param("imageIds") Collection<Long> imageIds);
+}
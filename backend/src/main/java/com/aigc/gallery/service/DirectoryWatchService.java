@@ -0,0 +1,270 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.ScanDirectory;
+import com.aigc.gallery.model.ScanResult;
+import com.aigc.gallery.repository.ScanDirectoryRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 扫描目录实时监听
+ * 递归注册 WatchService，新增或修改的图片在防抖后小批量增量导入；
+ * 事件溢出时提交一次增量重新扫描，并定期重新扫描作为兜底
+ */
+@Slf4j
+@Service
+public class DirectoryWatchService {
+    
+    @Autowired
+    private ScanDirectoryRepository scanDirectoryRepository;
+    
+    @Autowired
+    private ImageService imageService;
+    
+    @Autowired
+    private ImageScanService imageScanService;
+    
+    @Autowired
+    private ScanJobService scanJobService;
+    
+    /**
+     * 文件最后一次变化后等待的时间，避免导入仍在写入的文件
+     */
+    @Value("${gallery.watch.debounce-ms:2000}")
+    private long debounceMillis;
+    
+    /**
+     * 每批导入的最大文件数量
+     */
+    @Value("${gallery.watch.batch-size:200}")
+    private int batchSize;
+    
+    private WatchService watchService;
+    
+    private Thread watchThread;
+    
+    private final ExecutorService ingestExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "watch-ingest");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // 已注册的子目录，WatchKey 到 (子目录, 包含它的扫描目录ID) 的映射；扫描目录互相嵌套时同一子目录只有一个 WatchKey
+    private final Map<WatchKey, WatchedPath> watchKeys = new ConcurrentHashMap<>();
+    
+    // 待导入的文件及其最后一次变化的时间，按扫描目录ID分组
+    private final Map<Long, Map<Path, Long>> pendingFiles = new ConcurrentHashMap<>();
+    
+    private record WatchedPath(Path path, Set<Long> directoryIds) {
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        watchThread = new Thread(this::processEvents, "directory-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        
+        for (ScanDirectory directory : scanDirectoryRepository.findAll()) {
+            if (Boolean.TRUE.equals(directory.getWatchEnabled())) {
+                watch(directory);
+                // 应用停止期间的变化没有事件，启动时先增量重新扫描一次
+                submitRescan(directory.getId());
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+        ingestExecutor.shutdownNow();
+    }
+    
+    /**
+     * 开始监听扫描目录及其所有子目录
+     */
+    public void watch(ScanDirectory directory) {
+        unwatch(directory.getId());
+        Path root = Paths.get(directory.getPath()).toAbsolutePath().normalize();
+        try {
+            registerTree(directory.getId(), root);
+            log.info("Watching directory: {}", root);
+        } catch (IOException e) {
+            log.error("Failed to watch directory: " + root, e);
+        }
+    }
+    
+    /**
+     * 停止监听扫描目录，其他扫描目录仍在使用的 WatchKey 保留
+     */
+    public void unwatch(Long directoryId) {
+        for (WatchKey key : watchKeys.keySet()) {
+            watchKeys.computeIfPresent(key, (k, watched) -> {
+                watched.directoryIds().remove(directoryId);
+                if (watched.directoryIds().isEmpty()) {
+                    k.cancel();
+                    return null;
+                }
+                return watched;
+            });
+        }
+        pendingFiles.remove(directoryId);
+    }
+    
+    /**
+     * 导入防抖时间已过的文件，目录正在被扫描任务处理时留到下一轮
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void flushPendingFiles() {
+        long readyBefore = System.currentTimeMillis() - debounceMillis;
+        pendingFiles.forEach((directoryId, files) -> {
+            List<Path> batch = new ArrayList<>();
+            for (Map.Entry<Path, Long> entry : files.entrySet()) {
+                if (batch.size() >= batchSize) {
+                    break;
+                }
+                if (entry.getValue() <= readyBefore && files.remove(entry.getKey(), entry.getValue())) {
+                    batch.add(entry.getKey());
+                }
+            }
+            if (!batch.isEmpty()) {
+                ingestExecutor.execute(() -> ingest(directoryId, batch));
+            }
+        });
+    }
+    
+    /**
+     * 定期对监听的目录做一次增量重新扫描，弥补丢失的事件
+     */
+    @Scheduled(fixedDelayString = "${gallery.watch.reconcile-interval:PT30M}",
+               initialDelayString = "${gallery.watch.reconcile-interval:PT30M}")
+    public void reconcile() {
+        watchKeys.values().stream()
+            .flatMap(watched -> watched.directoryIds().stream())
+            .distinct()
+            .forEach(this::submitRescan);
+    }
+    
+    private void ingest(Long directoryId, List<Path> batch) {
+        try {
+            boolean done = scanJobService.tryRunExclusive(directoryId, () -> {
+                ScanResult result = imageService.updateFiles(directoryId, batch);
+                log.info("Watched directory {} updated: {} added, {} changed, {} removed",
+                    directoryId, result.getAdded(), result.getChanged(), result.getRemoved());
+            });
+            if (!done) {
+                requeue(directoryId, batch);
+            }
+        } catch (Exception e) {
+            log.error("Failed to ingest watched files of directory " + directoryId, e);
+        }
+    }
+    
+    private void processEvents() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            
+            WatchedPath watched = watchKeys.get(key);
+            if (watched == null) {
+                key.cancel();
+                continue;
+            }
+            
+            List<Long> directoryIds = new ArrayList<>(watched.directoryIds());
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    log.warn("Watch events overflowed for {}, rescanning", watched.path());
+                    directoryIds.forEach(this::submitRescan);
+                    continue;
+                }
+                Path path = watched.path().resolve((Path) event.context());
+                for (Long directoryId : directoryIds) {
+                    handleEvent(directoryId, path);
+                }
+            }
+            
+            if (!key.reset()) {
+                watchKeys.remove(key);
+            }
+        }
+    }
+    
+    private void handleEvent(Long directoryId, Path path) {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            // 新建的子目录需要注册，注册前已写入的文件一并导入
+            try {
+                registerTree(directoryId, path);
+                try (var stream = Files.walk(path)) {
+                    stream.filter(file -> imageScanService.isImageFile(file.toString()))
+                        .forEach(file -> enqueue(directoryId, file));
+                }
+            } catch (IOException e) {
+                log.warn("Failed to register new directory: {}", path);
+            }
+        } else if (imageScanService.isImageFile(path.toString())) {
+            enqueue(directoryId, path);
+        }
+    }
+    
+    private void registerTree(Long directoryId, Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // 同一子目录重复注册返回同一个 WatchKey，记录所有包含它的扫描目录
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                watchKeys.computeIfAbsent(key, k -> new WatchedPath(dir, ConcurrentHashMap.newKeySet()))
+                    .directoryIds().add(directoryId);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    private void enqueue(Long directoryId, Path path) {
+        pendingFiles.computeIfAbsent(directoryId, id -> new ConcurrentHashMap<>())
+            .put(path, System.currentTimeMillis());
+    }
+    
+    private void requeue(Long directoryId, List<Path> batch) {
+        Map<Path, Long> files = pendingFiles.computeIfAbsent(directoryId, id -> new ConcurrentHashMap<>());
+        batch.forEach(path -> files.putIfAbsent(path, System.currentTimeMillis()));
+    }
+    
+    private void submitRescan(Long directoryId) {
+        try {
+            scanJobService.submitDirectoryScan(directoryId);
+        } catch (IllegalArgumentException e) {
+            unwatch(directoryId);
+        }
+    }
+}
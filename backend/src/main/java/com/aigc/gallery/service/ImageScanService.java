@@ -1,24 +1,36 @@
 package com.aigc.gallery.service;
 
 import com.aigc.gallery.model.ImageInfo;
-import com.aigc.gallery.util.TagProcessor;
-import com.aigc.gallery.util.PromptExtractor;
+import com.aigc.gallery.model.ScanProgress;
+import com.aigc.gallery.model.ScannedFile;
+import com.aigc.gallery.util.FileFingerprint;
+import com.aigc.gallery.util.PngTextReader;
 import com.drew.imaging.ImageMetadataReader;
+import com.drew.lang.KeyValuePair;
 import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
+import com.drew.metadata.jpeg.JpegDirectory;
 import com.drew.metadata.png.PngDirectory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -27,86 +39,195 @@ public class ImageScanService {
     private static final Pattern DATE_PATTERN_2 = Pattern.compile("^(\\d{2}-\\d{2}-\\d{2}).*");
     
     @Autowired
-    private TagProcessor tagProcessor;
+    private PromptExtractionCache promptExtractionCache;
     
     @Autowired
-    private PromptExtractor promptExtractor;
+    private FileFingerprint fileFingerprint;
     
-    private Path basePath;
+    @Autowired
+    private PngTextReader pngTextReader;
+    
+    /**
+     * 元数据解析并行度，小于等于1时使用串行扫描
+     */
+    @Value("${gallery.scan.parallelism:0}")
+    private int parallelism;
+    
+    private ExecutorService scanExecutor;
+    
+    @PostConstruct
+    public void init() {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (parallelism > 1) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            scanExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "image-scan-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (scanExecutor != null) {
+            scanExecutor.shutdownNow();
+        }
+    }
+    
+    /**
+     * 解析指定的图片文件，用于增量扫描时只处理新增或变化的文件；解析失败的文件计入进度，已请求取消时抛出 CancellationException
+     * @param root 扫描根目录，用于计算相对路径
+     */
+    public List<ImageInfo> scanImages(Path root, List<Path> files, ScanProgress progress) {
+        if (scanExecutor == null || files.size() < 2) {
+            return scanSerial(root, files, progress);
+        }
+        return scanParallel(root, files, progress);
+    }
     
-    public void setBasePath(String path) {
-        this.basePath = Paths.get(path).toAbsolutePath().normalize();
+    /**
+     * 串行处理图片文件
+     */
+    private List<ImageInfo> scanSerial(Path root, List<Path> files, ScanProgress progress) {
+        List<ImageInfo> images = new ArrayList<>();
+        for (Path path : files) {
+            progress.checkCancelled();
+            ImageInfo imageInfo = processImageFile(root, path);
+            if (imageInfo != null) {
+                images.add(imageInfo);
+            } else {
+                progress.incrementFailed();
+            }
+        }
+        return images;
     }
     
     /**
-     * 扫描指定目录下的所有图片
+     * 使用工作线程池并行处理图片文件，结果顺序与串行扫描一致
      */
-    public List<ImageInfo> scanImages() {
-        if (basePath == null) {
-            throw new IllegalStateException("Base path not set");
+    private List<ImageInfo> scanParallel(Path root, List<Path> files, ScanProgress progress) {
+        List<Future<ImageInfo>> futures = new ArrayList<>(files.size());
+        for (Path path : files) {
+            futures.add(scanExecutor.submit(() -> progress.isCancelled() ? null : processImageFile(root, path)));
         }
         
+        List<ImageInfo> images = new ArrayList<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                if (progress.isCancelled()) {
+                    futures.forEach(future -> future.cancel(false));
+                    progress.checkCancelled();
+                }
+                try {
+                    ImageInfo imageInfo = futures.get(i).get();
+                    if (imageInfo != null) {
+                        images.add(imageInfo);
+                    } else {
+                        progress.incrementFailed();
+                    }
+                } catch (ExecutionException e) {
+                    log.error("Error processing image: " + files.get(i), e.getCause());
+                    progress.incrementFailed();
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Scan interrupted: " + root, e);
+        }
+        progress.checkCancelled();
+        return images;
+    }
+    
+    /**
+     * 列出目录下所有图片文件及其大小、修改时间，不读取文件内容
+     */
+    public List<ScannedFile> listImageFiles(String directory) {
+        return findImageFiles(checkDirectory(Paths.get(directory).toAbsolutePath().normalize()));
+    }
+    
+    private Path checkDirectory(Path root) {
         // 检查目录是否存在
-        if (!Files.exists(basePath)) {
-            throw new IllegalArgumentException("Directory does not exist: " + basePath);
+        if (!Files.exists(root)) {
+            throw new IllegalArgumentException("Directory does not exist: " + root);
         }
         
         // 检查是否是目录
-        if (!Files.isDirectory(basePath)) {
-            throw new IllegalArgumentException("Path is not a directory: " + basePath);
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Path is not a directory: " + root);
         }
-        
-        List<ImageInfo> images = new ArrayList<>();
+        return root;
+    }
+    
+    /**
+     * 遍历目录，收集所有图片文件
+     */
+    private List<ScannedFile> findImageFiles(Path root) {
+        List<ScannedFile> files = new ArrayList<>();
         try {
-            Files.find(basePath, 
-                       Integer.MAX_VALUE,
-                       (path, attrs) -> {
-                           // 只处理常规文件，跳过目录和特殊文件
-                           if (!attrs.isRegularFile()) {
-                               return false;
-                           }
-                           // 检查是否为图片文件
-                           return isImageFile(path.toString());
-                       })
-                .forEach(path -> {
-                    try {
-                        ImageInfo imageInfo = processImageFile(path);
-                        if (imageInfo != null) {
-                            images.add(imageInfo);
-                        }
-                    } catch (Exception e) {
-                        log.error("Error processing image: " + path, e);
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    // 只处理常规图片文件，跳过目录和特殊文件
+                    // 遍历时已得到文件属性，直接记录以避免再次stat
+                    if (attrs.isRegularFile() && isImageFile(path.toString())) {
+                        files.add(new ScannedFile(path, attrs.size(), attrs.lastModifiedTime().toMillis()));
                     }
-                });
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    log.warn("Cannot access file: {}", path);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return files;
         } catch (IOException e) {
-            log.error("Error scanning directory: " + basePath, e);
-            throw new RuntimeException("Failed to scan directory: " + basePath, e);
+            log.error("Error scanning directory: " + root, e);
+            throw new RuntimeException("Failed to scan directory: " + root, e);
         }
-        
-        return images;
     }
     
     /**
      * 处理单个图片文件
      */
-    private ImageInfo processImageFile(Path path) {
+    private ImageInfo processImageFile(Path root, Path path) {
         try {
             File file = path.toFile();
             ImageInfo imageInfo = new ImageInfo();
             imageInfo.setFileName(file.getName());
             imageInfo.setFilePath(file.getAbsolutePath());
-            imageInfo.setRelativePath(basePath.relativize(path).toString());
+            imageInfo.setRelativePath(root.relativize(path).toString());
             imageInfo.setFileSize(file.length());
             
+            // 记录源文件状态，供增量扫描判断文件是否变化
+            FileTime lastModified = Files.getLastModifiedTime(path);
+            imageInfo.setSourcePath(imageInfo.getFilePath());
+            imageInfo.setSourceLastModified(lastModified.toMillis());
+            imageInfo.setFingerprint(fileFingerprint.compute(path));
+            
             // 解析文件名中的日期
             LocalDateTime createTime = parseCreateTimeFromFileName(file.getName());
             imageInfo.setCreateTime(createTime != null ? createTime : 
-                LocalDateTime.ofInstant(Files.getLastModifiedTime(path).toInstant(), 
+                LocalDateTime.ofInstant(lastModified.toInstant(), 
                     TimeZone.getDefault().toZoneId()));
             
-            // 读取图片元数据
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
-            processImageMetadata(metadata, imageInfo);
+            // 读取图片元数据：PNG 优先只读取 IDAT 之前的文本块，其他格式或异常文件使用完整解析
+            PngTextReader.PngText pngText = pngTextReader.read(path);
+            if (pngText != null) {
+                imageInfo.setWidth(pngText.width());
+                imageInfo.setHeight(pngText.height());
+                if (!pngText.chunks().isEmpty()) {
+                    processPromptMetadata(pngText.chunks(), imageInfo);
+                }
+            } else {
+                Metadata metadata = ImageMetadataReader.readMetadata(file);
+                processImageMetadata(metadata, imageInfo);
+            }
             
             return imageInfo;
         } catch (Exception e) {
@@ -119,35 +240,47 @@ public class ImageScanService {
      * 处理图片元数据
      */
     private void processImageMetadata(Metadata metadata, ImageInfo imageInfo) {
+        List<PngTextReader.TextChunk> chunks = new ArrayList<>();
         for (Directory directory : metadata.getDirectories()) {
-            if (directory instanceof PngDirectory) {
-                String description = directory.getString(PngDirectory.TAG_TEXTUAL_DATA);
-                if (description != null) {
-                    // 处理 NovelAI 和 ComfyUI 的元数据格式
-                    processPromptMetadata(description, imageInfo);
+            // 图片尺寸：PNG 来自 IHDR，JPEG 来自 SOF
+            if (directory instanceof PngDirectory && directory.containsTag(PngDirectory.TAG_IMAGE_WIDTH)) {
+                imageInfo.setWidth(directory.getInteger(PngDirectory.TAG_IMAGE_WIDTH));
+                imageInfo.setHeight(directory.getInteger(PngDirectory.TAG_IMAGE_HEIGHT));
+            } else if (directory instanceof JpegDirectory) {
+                imageInfo.setWidth(directory.getInteger(JpegDirectory.TAG_IMAGE_WIDTH));
+                imageInfo.setHeight(directory.getInteger(JpegDirectory.TAG_IMAGE_HEIGHT));
+            }
+            // 每个文本块对应一个 PngDirectory
+            if (directory instanceof PngDirectory pngDirectory
+                && pngDirectory.getObject(PngDirectory.TAG_TEXTUAL_DATA) instanceof List<?> pairs) {
+                for (Object pair : pairs) {
+                    if (pair instanceof KeyValuePair keyValue) {
+                        chunks.add(PngTextReader.TextChunk.of(pngDirectory.getPngChunkType(), keyValue));
+                    }
                 }
             }
         }
+        if (!chunks.isEmpty()) {
+            processPromptMetadata(chunks, imageInfo);
+        }
     }
     
     /**
-     * 处理提示词元数据
+     * 处理提示词元数据：图片的全部文本块一起解析，由优先级最高且提取到提示词的格式决定结果
      */
-    private void processPromptMetadata(String metadata, ImageInfo imageInfo) {
-        // 存储原始元数据
-        imageInfo.setMetadata(metadata);
-        
-        // 提取提示词
-        String[] prompts = promptExtractor.extractPrompts(metadata);
-        imageInfo.setPrompt(prompts[0]);
-        imageInfo.setNegativePrompt(prompts[1]);
-        
-        // 处理标签
-        Set<String> tags = tagProcessor.extractTags(prompts[0]);
-        Set<String> artists = tagProcessor.extractArtists(tags);
+    private void processPromptMetadata(List<PngTextReader.TextChunk> chunks, ImageInfo imageInfo) {
+        // 存储原始元数据，每个文本块一行
+        imageInfo.setMetadata(chunks.stream()
+            .map(PngTextReader.TextChunk::toString)
+            .collect(Collectors.joining("\n")));
         
-        imageInfo.setTags(tags);
-        imageInfo.setArtists(artists);
+        // 提取提示词和标签，同一 workflow 只有种子不同的图片共享解析结果
+        PromptExtractionCache.Extraction extraction = promptExtractionCache.extract(chunks);
+        imageInfo.setPrompt(extraction.prompt());
+        imageInfo.setNegativePrompt(extraction.negativePrompt());
+        imageInfo.setMetadataFormat(extraction.format());
+        imageInfo.setTags(new HashSet<>(extraction.tags()));
+        imageInfo.setArtists(new HashSet<>(extraction.artists()));
     }
     
     /**
@@ -172,7 +305,7 @@ public class ImageScanService {
     /**
      * 判断是否为图片文件
      */
-    private boolean isImageFile(String path) {
+    public boolean isImageFile(String path) {
         String lowercasePath = path.toLowerCase();
         return lowercasePath.endsWith(".png") || 
                lowercasePath.endsWith(".jpg") || 
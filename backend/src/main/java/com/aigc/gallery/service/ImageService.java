@@ -1,30 +1,38 @@
 package com.aigc.gallery.service;
 
+import com.aigc.gallery.model.CursorPage;
+import com.aigc.gallery.model.DateBucket;
 import com.aigc.gallery.model.ImageInfo;
+import com.aigc.gallery.model.ImageServingInfo;
+import com.aigc.gallery.model.ImageSummary;
 import com.aigc.gallery.model.ScanDirectory;
+import com.aigc.gallery.model.ScanProgress;
+import com.aigc.gallery.model.ScanResult;
+import com.aigc.gallery.model.StorageMode;
+import com.aigc.gallery.model.TagCompletion;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public interface ImageService {
     /**
-     * 设置图片扫描基础路径
+     * 扫描指定路径并更新图片库
+     * @param progress 扫描进度，可用于取消扫描
      */
-    void setBasePath(String path);
+    ScanResult scanAndUpdateImages(String basePath, ScanProgress progress);
     
     /**
-     * 扫描并更新图片库
-     */
-    void scanAndUpdateImages();
-    
-    /**
-     * 添加扫描目录
+     * 添加扫描目录，目录中的图片由扫描任务导入
+     * @param storageMode 图片入库方式，为null时复制到管理目录
      * @return 添加成功返回目录ID，已存在则返回null
      */
-    Long addScanDirectory(String path, String description);
+    Long addScanDirectory(String path, String description, StorageMode storageMode);
     
     /**
      * 删除扫描目录
@@ -33,10 +41,21 @@ public interface ImageService {
     boolean removeScanDirectory(Long directoryId);
     
     /**
-     * 重新扫描指定目录
-     * @return 更新的图片数量
+     * 增量重新扫描指定目录，只解析新增或变化的文件
+     * @param progress 扫描进度，可用于取消扫描
+     * @return 新增、变化、删除的图片数量
+     */
+    ScanResult rescanDirectory(Long directoryId, ScanProgress progress);
+    
+    /**
+     * 增量更新目录中的指定文件：导入新增或变化的文件，删除已不存在的文件对应的图片
      */
-    int rescanDirectory(Long directoryId);
+    ScanResult updateFiles(Long directoryId, Collection<Path> files);
+    
+    /**
+     * 开启或关闭目录监听
+     */
+    ScanDirectory setDirectoryWatch(Long directoryId, boolean enabled);
     
     /**
      * 获取所有扫描目录
@@ -46,38 +65,101 @@ public interface ImageService {
     /**
      * 按日期分组获取图片
      */
-    Map<String, List<ImageInfo>> getImagesByDate(Pageable pageable);
+    Map<String, List<ImageSummary>> getImagesByDate(Pageable pageable);
+    
+    /**
+     * 获取时间线，按天或按月统计图片数量
+     * @param granularity day 或 month
+     */
+    List<DateBucket> getTimeline(String granularity);
+    
+    /**
+     * 分页获取某一天的图片，未指定排序时按创建时间倒序
+     */
+    Page<ImageSummary> getImagesOfDate(LocalDate date, Pageable pageable);
+    
+    /**
+     * 按 (创建时间, ID) 倒序的游标分页，不执行总数查询，翻页深度不影响查询代价
+     * @param date 只返回这一天的图片，为null时返回全部
+     * @param cursor 上一页返回的游标，为null时返回第一页
+     * @throws IllegalArgumentException 游标无效
+     */
+    CursorPage<ImageSummary> getImageFeed(LocalDate date, String cursor, int size);
+    
+    /**
+     * 统计图片总数
+     * @param date 只统计这一天的图片，为null时统计全部
+     */
+    long countImages(LocalDate date);
     
     /**
      * 按标签分组获取图片
      */
-    Map<String, List<ImageInfo>> getImagesByTag(Pageable pageable);
+    Map<String, List<ImageSummary>> getImagesByTag(Pageable pageable);
     
     /**
      * 按画师分组获取图片
      */
-    Map<String, List<ImageInfo>> getImagesByArtist(Pageable pageable);
+    Map<String, List<ImageSummary>> getImagesByArtist(Pageable pageable);
+    
+    /**
+     * 获取所有标签，按使用次数从高到低排序
+     */
+    List<String> getAllTags();
+    
+    /**
+     * 获取所有画师，按使用次数从高到低排序
+     */
+    List<String> getAllArtists();
+    
+    /**
+     * 标签或画师名称的前缀补全，按使用次数从高到低排序
+     * @param type tag 或 artist
+     * @throws IllegalArgumentException 类型或数量无效
+     */
+    List<TagCompletion> completeTags(String type, String prefix, int limit);
     
     /**
-     * 获取所有标签
+     * 搜索包含任一标签的图片，最新导入的在前
      */
-    Set<String> getAllTags();
+    Page<ImageSummary> searchByTags(Set<String> tags, Pageable pageable);
     
     /**
-     * 获取所有画师
+     * 按标签查询表达式搜索图片，支持 AND / OR / NOT 和括号，最新导入的在前
+     * @throws IllegalArgumentException 查询语法错误
      */
-    Set<String> getAllArtists();
+    Page<ImageSummary> searchImages(String query, Pageable pageable);
     
     /**
-     * 根据标签搜索图片
+     * 全文搜索提示词，支持短语和前缀，按相关度排序
+     * @param field 搜索范围：prompt、negative 或 all
+     * @throws IllegalArgumentException 查询语法错误或搜索范围无效
      */
-    Page<ImageInfo> searchByTags(Set<String> tags, Pageable pageable);
+    Page<ImageSummary> searchPrompts(String query, String field, Pageable pageable);
     
     /**
      * 获取图片详情
      */
     ImageInfo getImageDetail(Long id);
     
+    /**
+     * 获取返回图片文件所需的信息，优先从缓存读取
+     * @return 图片不存在时返回null
+     */
+    ImageServingInfo getServingInfo(Long id);
+    
+    /**
+     * 获取图片的缩略图文件，缩略图不存在或已被淘汰时从原图生成
+     * @return 缩略图文件，原图不存在或生成失败返回null
+     */
+    Path getThumbnail(Long id);
+    
+    /**
+     * 按缩略图文件名获取缩略图文件，缩略图不存在或已被淘汰时从引用它的图片生成
+     * @return 缩略图文件，没有图片引用该缩略图或生成失败返回null
+     */
+    Path getThumbnail(String thumbnailName);
+    
     /**
      * 生成图片缩略图
      */
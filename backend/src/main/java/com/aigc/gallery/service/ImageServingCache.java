@@ -0,0 +1,99 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.CacheStats;
+import com.aigc.gallery.model.ImageServingInfo;
+import com.aigc.gallery.repository.ImageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片ID到文件服务信息的读穿透缓存，按最近访问淘汰
+ * 缩略图和图片文件请求命中时无需查询数据库；图片被覆盖或删除时由写入方失效
+ */
+@Service
+public class ImageServingCache {
+    
+    @Autowired
+    private ImageRepository imageRepository;
+    
+    /**
+     * 缓存的图片数量上限
+     */
+    @Value("${gallery.serving-cache.max-size:10000}")
+    private int maxSize;
+    
+    private final Map<Long, ImageServingInfo> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ImageServingInfo> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    
+    // 每次失效递增，加载期间发生过失效的结果不放入缓存，避免写回旧数据
+    private final AtomicLong generation = new AtomicLong();
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    
+    /**
+     * 获取图片的文件服务信息，未缓存时从数据库加载
+     * @return 图片不存在时返回null
+     */
+    public ImageServingInfo get(Long id) {
+        synchronized (entries) {
+            ImageServingInfo info = entries.get(id);
+            if (info != null) {
+                hits.incrementAndGet();
+                return info;
+            }
+        }
+        misses.incrementAndGet();
+        
+        long loadGeneration = generation.get();
+        ImageServingInfo info = imageRepository.findServingInfo(id).orElse(null);
+        if (info != null) {
+            synchronized (entries) {
+                if (generation.get() == loadGeneration) {
+                    entries.put(id, info);
+                }
+            }
+        }
+        return info;
+    }
+    
+    /**
+     * 使指定图片的缓存失效，图片被覆盖或删除后调用
+     */
+    public void invalidate(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        synchronized (entries) {
+            generation.incrementAndGet();
+            for (Long id : ids) {
+                if (entries.remove(id) != null) {
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+    
+    public CacheStats getStats() {
+        synchronized (entries) {
+            return new CacheStats(entries.size(), maxSize, hits.get(), misses.get(), evictions.get(),
+                invalidations.get());
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.ScanDirectory;
+import com.aigc.gallery.model.StorageMode;
+import com.aigc.gallery.repository.ScanDirectoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 内容寻址的图片存储
+ * 图片按内容哈希存放在 images/ab/cd/abcd....png，相同内容只保存一份，可被多条图片记录引用
+ * 引用模式的图片不进入管理目录，访问路径为 /images/src/{目录ID}/{相对路径}，直接指向扫描目录中的原始文件
+ */
+@Slf4j
+@Service
+public class ImageStoreService {
+    public static final String IMAGES_DIR = "images";
+    public static final String URL_PREFIX = "/images/";
+    public static final String REFERENCE_PREFIX = URL_PREFIX + "src/";
+    private static final String TEMP_DIR = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LOCK_STRIPES = 64;
+    
+    @Autowired
+    private ScanDirectoryRepository scanDirectoryRepository;
+    
+    // 目录ID到扫描根目录（解析符号链接后的真实路径）的缓存，供引用模式解析路径
+    private final Map<Long, Path> directoryRoots = new ConcurrentHashMap<>();
+    
+    // 按访问路径（即内容哈希）分段的锁，同一内容的存入和删除互斥
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    // 已存入但引用它的记录尚未提交的文件：访问路径 -> 未提交的记录数，同一路径的修改都在对应的锁内
+    private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+    
+    public ImageStoreService() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        try {
+            Files.createDirectories(Paths.get(IMAGES_DIR, TEMP_DIR));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create image store directory", e);
+        }
+    }
+    
+    /**
+     * 计算文件内容哈希（SHA-256，JVM 对其有硬件加速）
+     */
+    public String hash(Path source) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(source)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    /**
+     * 将源文件复制到管理目录，已存在相同内容时不再复制
+     * @return 图片访问路径，例如 /images/ab/cd/abcd....png
+     */
+    public String store(Path source, String contentHash) throws IOException {
+        return store(source, contentHash, StorageMode.COPY);
+    }
+    
+    /**
+     * 将源文件存入管理目录，已存在相同内容时不再复制或链接
+     * 记录提交或放弃保存后需调用 {@link #completeStore(Collection)}，在此之前该文件不会被删除
+     * @param mode COPY 复制文件；HARDLINK 优先创建硬链接，跨文件系统等情况退回复制
+     * @return 图片访问路径，例如 /images/ab/cd/abcd....png
+     */
+    public String store(Path source, String contentHash, StorageMode mode) throws IOException {
+        if (mode == StorageMode.REFERENCE) {
+            throw new IllegalArgumentException("Referenced images are not stored: " + source);
+        }
+        
+        String relativePath = relativePath(contentHash, extension(source.getFileName().toString()));
+        Path target = Paths.get(IMAGES_DIR, relativePath);
+        String filePath = URL_PREFIX + relativePath.replace('\\', '/');
+        
+        synchronized (lockFor(filePath)) {
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                if (mode != StorageMode.HARDLINK || !tryLink(source, target)) {
+                    copy(source, target, contentHash);
+                }
+            }
+            pending.merge(filePath, 1, Integer::sum);
+        }
+        return filePath;
+    }
+    
+    /**
+     * 引用这些文件的记录已提交或放弃保存，之后文件是否保留由数据库中的引用决定
+     * @param filePaths {@link #store} 返回的访问路径，每次存入对应一个
+     */
+    public void completeStore(Collection<String> filePaths) {
+        for (String filePath : filePaths) {
+            synchronized (lockFor(filePath)) {
+                pending.computeIfPresent(filePath, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+    
+    /**
+     * 生成引用模式的访问路径，不复制任何文件
+     * @return 图片访问路径，例如 /images/src/3/2024/a.png
+     */
+    public String reference(Long directoryId, String relativePath) {
+        return REFERENCE_PREFIX + directoryId + "/" + relativePath.replace('\\', '/');
+    }
+    
+    /**
+     * 引用模式下代替内容哈希的键，由源文件路径和指纹决定，无需读取整个文件
+     */
+    public String referenceKey(String sourcePath, String fingerprint) {
+        MessageDigest digest = newDigest();
+        digest.update((sourcePath + "|" + fingerprint).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    /**
+     * 将图片访问路径解析为磁盘路径
+     * @return 磁盘路径，引用的目录不存在或路径越界时返回null；引用模式的文件不存在时也返回null
+     */
+    public Path resolve(String filePath) {
+        if (!filePath.startsWith(REFERENCE_PREFIX)) {
+            Path root = Paths.get(IMAGES_DIR).toAbsolutePath().normalize();
+            Path resolved = root.resolve(filePath.substring(URL_PREFIX.length())).normalize();
+            return resolved.startsWith(root) ? resolved : null;
+        }
+        
+        String reference = filePath.substring(REFERENCE_PREFIX.length());
+        int slash = reference.indexOf('/');
+        if (slash <= 0) {
+            return null;
+        }
+        
+        Long directoryId;
+        try {
+            directoryId = Long.valueOf(reference.substring(0, slash));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        
+        Path root = directoryRoots.computeIfAbsent(directoryId, id -> scanDirectoryRepository.findById(id)
+            .map(ScanDirectory::getPath)
+            .map(ImageStoreService::realPath)
+            .orElse(null));
+        if (root == null) {
+            return null;
+        }
+        
+        // 防止通过 .. 或指向外部的符号链接访问扫描目录之外的文件
+        Path resolved = realPath(root.resolve(reference.substring(slash + 1)).toString());
+        return resolved != null && resolved.startsWith(root) ? resolved : null;
+    }
+    
+    /**
+     * 目录被删除或修改后清除缓存的根目录
+     */
+    public void evictDirectory(Long directoryId) {
+        directoryRoots.remove(directoryId);
+    }
+    
+    /**
+     * 判断访问路径是否指向管理目录
+     */
+    public boolean isManaged(String filePath) {
+        return filePath != null && filePath.startsWith(URL_PREFIX) && !filePath.startsWith(REFERENCE_PREFIX);
+    }
+    
+    /**
+     * 删除不再被引用的管理目录文件；与存入同一内容互斥，已存入但记录尚未提交的文件不删除
+     * @param referenced 文件是否仍被已提交的记录引用，在锁内检查
+     * @return 是否删除了文件
+     */
+    public boolean deleteIfUnreferenced(String filePath, BooleanSupplier referenced) throws IOException {
+        if (!isManaged(filePath)) {
+            return false;
+        }
+        synchronized (lockFor(filePath)) {
+            if (pending.containsKey(filePath) || referenced.getAsBoolean()) {
+                return false;
+            }
+            delete(filePath);
+            return true;
+        }
+    }
+    
+    /**
+     * 删除管理目录中的图片文件，调用方需确认已无记录引用该文件
+     */
+    public void delete(String filePath) throws IOException {
+        Path path = isManaged(filePath) ? resolve(filePath) : null;
+        if (path != null) {
+            Files.deleteIfExists(path);
+        }
+    }
+    
+    private Object lockFor(String filePath) {
+        return locks[Math.floorMod(filePath.hashCode(), LOCK_STRIPES)];
+    }
+    
+    /**
+     * 在管理目录中创建指向源文件的硬链接
+     * @return 是否创建成功
+     */
+    private boolean tryLink(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // 跨文件系统或文件系统不支持硬链接
+            log.debug("Cannot hardlink {}, falling back to copy: {}", source, e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 先复制到临时文件再原子移动，避免并发写入或中断时留下不完整的文件
+     */
+    private void copy(Path source, Path target, String contentHash) throws IOException {
+        Path temp = Files.createTempFile(Paths.get(IMAGES_DIR, TEMP_DIR), contentHash, ".part");
+        try {
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            log.debug("Image already stored concurrently: {}", target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    /**
+     * 按哈希前两级分片: ab/cd/abcdef....ext
+     */
+    private String relativePath(String contentHash, String extension) {
+        return contentHash.substring(0, 2) + "/" + contentHash.substring(2, 4) + "/" + contentHash + extension;
+    }
+    
+    private String extension(String fileName) {
+        int index = fileName.lastIndexOf('.');
+        return index >= 0 ? fileName.substring(index).toLowerCase() : "";
+    }
+    
+    /**
+     * 解析符号链接后的真实路径，文件不存在时返回null
+     */
+    private static Path realPath(String path) {
+        try {
+            return Paths.get(path).toRealPath();
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+    
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.CacheStats;
+import com.aigc.gallery.util.PngTextReader;
+import com.aigc.gallery.util.PromptExtractor;
+import com.aigc.gallery.util.TagProcessor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片文本块到提示词和标签解析结果的缓存，按最近访问淘汰
+ * 同一批次生成的图片内嵌相同的 ComfyUI workflow，只有种子不同；缓存键是忽略种子后的元数据哈希，
+ * 同一批次只完整解析一次。多个扫描线程同时遇到未缓存的元数据时，只有一个线程解析，其余等待其结果
+ */
+@Service
+public class PromptExtractionCache {
+    // 64 位 FNV-1a 参数
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // 第二个哈希的乘数，两个独立的 64 位哈希合起来作为缓存键，避免不同 workflow 冲突
+    private static final long MIX_MULTIPLIER = 0x9e3779b97f4a7c15L;
+    
+    // workflow 中种子之后的 control_after_generate 取值
+    private static final String[] SEED_CONTROLS = {"randomize", "fixed", "increment", "decrement"};
+    private static final String SEED_KEY = "seed";
+    
+    @Autowired
+    private PromptExtractor promptExtractor;
+    
+    @Autowired
+    private TagProcessor tagProcessor;
+    
+    /**
+     * 缓存的解析结果数量上限
+     */
+    @Value("${gallery.prompt-cache.max-size:1000}")
+    private int maxSize;
+    
+    private final Map<Key, CompletableFuture<Extraction>> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<Extraction>> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    
+    /**
+     * 解析结果，标签和画师集合不可修改
+     * @param format 匹配的元数据格式
+     */
+    public record Extraction(String prompt, String negativePrompt, Set<String> tags, Set<String> artists,
+                             String format) {
+    }
+    
+    /**
+     * 忽略种子后的元数据哈希
+     * @param length 参与哈希的字符数
+     */
+    private record Key(long hash1, long hash2, int length) {
+    }
+    
+    /**
+     * 获取图片文本块的提示词和标签，未缓存时解析
+     */
+    public Extraction extract(List<PngTextReader.TextChunk> chunks) {
+        Key key = keyOf(chunks);
+        CompletableFuture<Extraction> future;
+        boolean loader = false;
+        synchronized (entries) {
+            future = entries.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                entries.put(key, future);
+                loader = true;
+            }
+        }
+        
+        if (!loader) {
+            hits.incrementAndGet();
+            return future.join();
+        }
+        misses.incrementAndGet();
+        
+        try {
+            Extraction extraction = parse(chunks);
+            future.complete(extraction);
+            return extraction;
+        } catch (RuntimeException e) {
+            synchronized (entries) {
+                entries.remove(key, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+    
+    public CacheStats getStats() {
+        synchronized (entries) {
+            return new CacheStats(entries.size(), maxSize, hits.get(), misses.get(), evictions.get(), 0);
+        }
+    }
+    
+    private Extraction parse(List<PngTextReader.TextChunk> chunks) {
+        PromptExtractor.Result result = promptExtractor.extract(chunks);
+        Set<String> tags = tagProcessor.extractTags(result.prompt());
+        Set<String> artists = tagProcessor.extractArtists(tags);
+        return new Extraction(result.prompt(), result.negativePrompt(), Set.copyOf(tags), Set.copyOf(artists),
+            result.format());
+    }
+    
+    /**
+     * 依次扫描各文本块的关键字和文本计算缓存键，种子数值不参与哈希：
+     * 键名以 seed 结尾的数值（"seed": 1、"noise_seed": 1、Seed: 1），
+     * 以及 workflow 的 widgets_values 中后面跟着 "randomize" 等取值的整数
+     */
+    private static Key keyOf(List<PngTextReader.TextChunk> chunks) {
+        long[] hashes = {FNV_OFFSET, 0};
+        int hashed = 0;
+        for (PngTextReader.TextChunk chunk : chunks) {
+            hashed += hash(chunk.keyword(), hashes);
+            hashed += hash(chunk.text(), hashes);
+        }
+        return new Key(hashes[0], hashes[1] ^ (hashes[1] >>> 29), hashed);
+    }
+    
+    /**
+     * 把文本累加到两个哈希中，文本之后追加一个 0 作为分隔
+     * @return 参与哈希的字符数
+     */
+    private static int hash(String text, long[] hashes) {
+        long hash1 = hashes[0];
+        long hash2 = hashes[1];
+        int hashed = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isDigit(c) && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))) {
+                int end = i + 1;
+                while (end < length && isDigit(text.charAt(end))) {
+                    end++;
+                }
+                if (isSeed(text, i, end)) {
+                    i = end;
+                    continue;
+                }
+            }
+            hash1 = (hash1 ^ c) * FNV_PRIME;
+            hash2 = (hash2 + c) * MIX_MULTIPLIER;
+            hashed++;
+            i++;
+        }
+        hashes[0] = hash1 * FNV_PRIME;
+        hashes[1] = hash2 * MIX_MULTIPLIER;
+        return hashed + 1;
+    }
+    
+    private static boolean isSeed(String text, int start, int end) {
+        // 前面是以 seed 结尾的键名
+        int i = skipWhitespaceBackward(text, start - 1);
+        if (i >= 0 && text.charAt(i) == ':') {
+            i = skipWhitespaceBackward(text, i - 1);
+            if (i >= 0 && text.charAt(i) == '"') {
+                i--;
+            }
+            int keyStart = i - SEED_KEY.length() + 1;
+            if (keyStart >= 0 && text.regionMatches(true, keyStart, SEED_KEY, 0, SEED_KEY.length())) {
+                return true;
+            }
+        }
+        
+        // 后面是 control_after_generate 取值
+        i = skipWhitespace(text, end);
+        if (i >= text.length() || text.charAt(i) != ',') {
+            return false;
+        }
+        i = skipWhitespace(text, i + 1);
+        if (i >= text.length() || text.charAt(i) != '"') {
+            return false;
+        }
+        for (String control : SEED_CONTROLS) {
+            int closing = i + 1 + control.length();
+            if (closing < text.length() && text.charAt(closing) == '"'
+                    && text.regionMatches(i + 1, control, 0, control.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static int skipWhitespace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+    
+    private static int skipWhitespaceBackward(String text, int i) {
+        while (i >= 0 && Character.isWhitespace(text.charAt(i))) {
+            i--;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,790 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.ImageInfo;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 正向提示词和反向提示词的全文索引，按相关度（BM25）排序
+ * 每个词对应按词频分层的图片ID位图，用于快速求交和取词频；每张图片只另外保存词数和变长编码的词序列，
+ * 词序列用于核对短语中的词是否相邻；停止时保存快照，下次启动时加载，没有可用快照时从数据库构建，导入和删除图片时增量更新
+ *
+ * 查询语法：
+ * <pre>
+ *   "blue sky" 1girl smil*
+ * </pre>
+ * 所有条件都需满足；双引号内为短语，要求各词按顺序相邻出现；以 * 结尾的词按前缀匹配；
+ * 下划线、括号、权重等符号视为分隔符，因此 blue_sky、(blue sky:1.2) 都能匹配短语 "blue sky"
+ */
+@Slf4j
+@Service
+public class PromptIndexService {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // 词频上限，BM25 的词频得分在此之后已接近饱和
+    private static final int MAX_FREQUENCY = 16;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * 搜索范围，ALL 同时搜索两个字段
+     */
+    public enum Field {
+        PROMPT, NEGATIVE, ALL
+    }
+
+    /**
+     * 一页搜索结果
+     * @param ids 本页图片ID，按相关度从高到低
+     * @param total 匹配的图片总数
+     */
+    public record Hits(List<Long> ids, long total) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${gallery.prompt-index.snapshot:data/prompt-index}")
+    private String snapshotPath;
+
+    // 词 -> 词ID，有序以支持前缀查找
+    private final TreeMap<String, Integer> terms = new TreeMap<>();
+
+    // 同时搜索两个字段时正向提示词命中的得分权重更高
+    private final FieldIndex prompt = new FieldIndex(1.0);
+    private final FieldIndex negative = new FieldIndex(0.5);
+
+    // 所有已索引的图片（包括没有提示词的），加载快照时与数据库中的图片数量和最大ID比较
+    private final RoaringBitmap indexedImages = new RoaringBitmap();
+
+    // 启动时的构建是否完成，未完成时不保存快照
+    private boolean ready;
+    // 启动后索引是否有过更新，构建前已有更新时快照可能缺少这些更新，不使用快照
+    private boolean updated;
+    // 停止时已保存快照，之后再有更新需删除快照
+    private boolean snapshotSaved;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 构建索引：优先加载上次停止时保存的快照，否则从数据库读取所有提示词
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            long start = System.currentTimeMillis();
+            if (!updated && loadSnapshot()) {
+                log.info("Prompt index loaded from snapshot: {} images, {} terms in {} ms",
+                    indexedImages.getLongCardinality(), terms.size(), System.currentTimeMillis() - start);
+            } else {
+                clear();
+                jdbcTemplate.query("SELECT id, prompt, negative_prompt FROM image_info", rs -> {
+                    int id = toIndexId(rs.getLong(1));
+                    indexedImages.add(id);
+                    prompt.add(id, toTermIds(rs.getString(2)));
+                    negative.add(id, toTermIds(rs.getString(3)));
+                });
+
+                prompt.optimize();
+                negative.optimize();
+                log.info("Prompt index built: {} images, {} terms in {} ms",
+                    indexedImages.getLongCardinality(), terms.size(), System.currentTimeMillis() - start);
+            }
+            ready = true;
+        } finally {
+            // 快照只加载一次，异常退出后下次启动从数据库构建
+            deleteSnapshot();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 停止时保存索引快照，下次启动时加载，不再重新读取所有提示词
+     */
+    @PreDestroy
+    public void saveSnapshot() {
+        lock.writeLock().lock();
+        try {
+            if (!ready) {
+                return;
+            }
+            // 停止时数据库可能已经关闭，快照只使用内存中的数据
+            long start = System.currentTimeMillis();
+            Path path = Paths.get(snapshotPath).toAbsolutePath();
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_VERSION);
+                indexedImages.serialize(out);
+                String[] termsById = new String[terms.size()];
+                terms.forEach((term, termId) -> termsById[termId] = term);
+                out.writeInt(termsById.length);
+                for (String term : termsById) {
+                    writeString(out, term);
+                }
+                prompt.write(out);
+                negative.write(out);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotSaved = true;
+            log.info("Prompt index snapshot saved in {} ms", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Failed to save prompt index snapshot", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 加载快照，快照不存在、版本不同或与数据库中的图片数量、最大ID不一致时返回false
+     */
+    private boolean loadSnapshot() {
+        Path path = Paths.get(snapshotPath);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+            clear();
+            indexedImages.deserialize(in);
+            String stats = indexedImages.getLongCardinality() + ":"
+                + (indexedImages.isEmpty() ? 0 : Integer.toUnsignedLong(indexedImages.last()));
+            if (!stats.equals(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) || ':' || COALESCE(MAX(id), 0) FROM image_info", String.class))) {
+                log.info("Prompt index snapshot is outdated, rebuilding from database");
+                return false;
+            }
+            int termCount = in.readInt();
+            for (int termId = 0; termId < termCount; termId++) {
+                terms.put(readString(in), termId);
+            }
+            prompt.read(in);
+            negative.read(in);
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to load prompt index snapshot, rebuilding from database: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void deleteSnapshot() {
+        try {
+            Files.deleteIfExists(Paths.get(snapshotPath));
+        } catch (IOException e) {
+            log.warn("Failed to delete prompt index snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    /**
+     * 记录索引更新，已保存的快照不再有效
+     */
+    private void markUpdated() {
+        updated = true;
+        if (snapshotSaved) {
+            snapshotSaved = false;
+            deleteSnapshot();
+        }
+    }
+
+    private void clear() {
+        indexedImages.clear();
+        terms.clear();
+        prompt.clear();
+        negative.clear();
+    }
+
+    /**
+     * 索引新增或更新的图片，已索引的图片先移除原有内容
+     */
+    public void index(Collection<ImageInfo> images) {
+        if (images.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            markUpdated();
+            for (ImageInfo image : images) {
+                int id = toIndexId(image.getId());
+                indexedImages.add(id);
+                prompt.remove(id);
+                negative.remove(id);
+                prompt.add(id, toTermIds(image.getPrompt()));
+                negative.add(id, toTermIds(image.getNegativePrompt()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中移除已删除的图片
+     */
+    public void remove(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            markUpdated();
+            for (Long id : ids) {
+                indexedImages.remove(toIndexId(id));
+                prompt.remove(toIndexId(id));
+                negative.remove(toIndexId(id));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 搜索提示词，按相关度从高到低排序，相关度相同时最新导入的在前
+     * @param field 搜索范围，同时搜索时正向提示词的命中权重更高
+     * @throws IllegalArgumentException 查询为空或语法错误
+     */
+    public Hits search(String query, Field field, long offset, int size) {
+        List<Clause> clauses = parse(query);
+        lock.readLock().lock();
+        try {
+            List<ClauseMatch> matches = new ArrayList<>(clauses.size());
+            RoaringBitmap candidates = null;
+            for (Clause clause : clauses) {
+                ClauseMatch match = match(clause, field);
+                matches.add(match);
+                candidates = candidates == null ? match.candidates.clone() : RoaringBitmap.and(candidates, match.candidates);
+            }
+
+            // 位图求交得到候选集，再逐个核对短语位置并计算得分
+            List<ScoredId> scored = new ArrayList<>();
+            IntIterator iterator = candidates.getIntIterator();
+            while (iterator.hasNext()) {
+                int id = iterator.next();
+                double score = score(id, matches, field);
+                if (score > 0) {
+                    scored.add(new ScoredId(id, score));
+                }
+            }
+            scored.sort(Comparator.comparingDouble(ScoredId::score).reversed()
+                .thenComparing(ScoredId::id, Comparator.comparingInt(Integer::intValue).reversed()));
+
+            List<Long> page = new ArrayList<>(size);
+            for (long i = offset; i < scored.size() && page.size() < size; i++) {
+                page.add(Integer.toUnsignedLong(scored.get((int) i).id()));
+            }
+            return new Hits(page, scored.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ClauseMatch match(Clause clause, Field field) {
+        ClauseMatch match = new ClauseMatch(clause);
+        if (clause.prefix != null) {
+            // 前缀展开为词ID集合，候选为各词位图的并集
+            match.prefixTerms = new RoaringBitmap();
+            for (Integer termId : terms.subMap(clause.prefix, clause.prefix + Character.MAX_VALUE).values()) {
+                match.prefixTerms.add(termId);
+            }
+        } else {
+            match.termIds = new int[clause.phrase.size()];
+            for (int i = 0; i < clause.phrase.size(); i++) {
+                Integer termId = terms.get(clause.phrase.get(i));
+                match.termIds[i] = termId != null ? termId : -1;
+            }
+        }
+        if (field != Field.NEGATIVE) {
+            match.promptCandidates = prompt.candidates(match);
+            match.promptIdf = prompt.idf(match.promptCandidates);
+        }
+        if (field != Field.PROMPT) {
+            match.negativeCandidates = negative.candidates(match);
+            match.negativeIdf = negative.idf(match.negativeCandidates);
+        }
+        match.candidates = match.promptCandidates == null ? match.negativeCandidates
+            : match.negativeCandidates == null ? match.promptCandidates
+            : RoaringBitmap.or(match.promptCandidates, match.negativeCandidates);
+        return match;
+    }
+
+    /**
+     * 计算文档得分，有条件在所有字段中都未真正命中（短语不相邻）时返回0
+     */
+    private double score(int id, List<ClauseMatch> matches, Field field) {
+        double score = 0;
+        for (ClauseMatch match : matches) {
+            double clauseScore = 0;
+            if (match.promptCandidates != null && match.promptCandidates.contains(id)) {
+                clauseScore += (field == Field.ALL ? prompt.weight : 1) * prompt.score(id, match, match.promptIdf);
+            }
+            if (match.negativeCandidates != null && match.negativeCandidates.contains(id)) {
+                clauseScore += (field == Field.ALL ? negative.weight : 1) * negative.score(id, match, match.negativeIdf);
+            }
+            if (clauseScore == 0) {
+                return 0;
+            }
+            score += clauseScore;
+        }
+        return score;
+    }
+
+    /**
+     * 解析查询：双引号内为短语，其余按空白拆分，每个词按索引相同的规则切分，切出多个词时视为短语
+     */
+    private static List<Clause> parse(String query) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Query is empty");
+        }
+        List<Clause> clauses = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed quote in query");
+                }
+                addPhrase(clauses, query.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') {
+                    end++;
+                }
+                String word = query.substring(i, end);
+                if (word.endsWith("*")) {
+                    List<String> words = analyze(word.substring(0, word.length() - 1));
+                    if (words.size() == 1) {
+                        clauses.add(new Clause(null, words.get(0)));
+                    } else if (!words.isEmpty()) {
+                        throw new IllegalArgumentException("Prefix must be a single word: " + word);
+                    }
+                } else {
+                    addPhrase(clauses, word);
+                }
+                i = end;
+            }
+        }
+        if (clauses.isEmpty()) {
+            throw new IllegalArgumentException("Query has no searchable words");
+        }
+        return clauses;
+    }
+
+    private static void addPhrase(List<Clause> clauses, String text) {
+        List<String> words = analyze(text);
+        if (!words.isEmpty()) {
+            clauses.add(new Clause(words, null));
+        }
+    }
+
+    private static List<String> analyze(String text) {
+        List<String> words = new ArrayList<>();
+        tokenize(text, words::add);
+        return words;
+    }
+
+    /**
+     * 切分文本并转换为词ID序列，新词加入词表
+     */
+    private int[] toTermIds(String text) {
+        List<String> words = analyze(text);
+        int[] ids = new int[words.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = terms.computeIfAbsent(words.get(i), k -> terms.size());
+        }
+        return ids;
+    }
+
+    /**
+     * 按字母和数字的连续片段切分并转为小写，纯数字（多为权重、步数等参数）不作为词
+     */
+    private static void tokenize(String text, Consumer<String> consumer) {
+        if (text == null) {
+            return;
+        }
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = i;
+            boolean numeric = true;
+            while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) {
+                numeric &= Character.isDigit(text.charAt(end));
+                end++;
+            }
+            if (!numeric) {
+                consumer.accept(text.substring(i, end).toLowerCase(Locale.ROOT));
+            }
+            i = end;
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 位图按32位无符号整数存储ID
+     */
+    private static int toIndexId(long id) {
+        if (id < 0 || id > 0xFFFFFFFFL) {
+            throw new IllegalStateException("Image id out of index range: " + id);
+        }
+        return (int) id;
+    }
+
+    /**
+     * 查询条件：短语（单个词视为长度为1的短语）或前缀
+     */
+    private record Clause(List<String> phrase, String prefix) {
+    }
+
+    private record ScoredId(int id, double score) {
+    }
+
+    /**
+     * 查询条件在索引中的展开结果
+     */
+    private static class ClauseMatch {
+        final Clause clause;
+        // 短语各词的ID，词表中不存在的词为 -1
+        int[] termIds;
+        RoaringBitmap prefixTerms;
+        RoaringBitmap promptCandidates;
+        RoaringBitmap negativeCandidates;
+        RoaringBitmap candidates;
+        double promptIdf;
+        double negativeIdf;
+
+        ClauseMatch(Clause clause) {
+            this.clause = clause;
+        }
+    }
+
+    /**
+     * 单个字段的倒排索引
+     */
+    private static class FieldIndex {
+        final double weight;
+        // 词ID -> 按词频分层的图片ID位图，第 k 个位图为该词出现超过 k 次的图片，第 0 个即包含该词的图片
+        final List<RoaringBitmap[]> postings = new ArrayList<>();
+        // 图片ID -> 词数和变长编码的词ID序列，按ID高16位分页，与位图的分块方式相同
+        final int[][] lengths = new int[1 << 16][];
+        final byte[][][] sequences = new byte[1 << 16][][];
+        int documentCount;
+        long totalLength;
+        // 上一张图片的词序列；同一批生成的图片和反向提示词常常完全相同，相同时共用
+        private byte[] lastSequence;
+
+        FieldIndex(double weight) {
+            this.weight = weight;
+        }
+
+        void clear() {
+            postings.clear();
+            Arrays.fill(lengths, null);
+            Arrays.fill(sequences, null);
+            documentCount = 0;
+            totalLength = 0;
+            lastSequence = null;
+        }
+
+        void add(int id, int[] termIds) {
+            if (termIds.length == 0) {
+                return;
+            }
+            setDocument(id, termIds.length, encode(termIds));
+            documentCount++;
+            totalLength += termIds.length;
+
+            int[] sorted = termIds.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < sorted.length; ) {
+                int end = i + 1;
+                while (end < sorted.length && sorted[end] == sorted[i]) {
+                    end++;
+                }
+                addPosting(sorted[i], id, Math.min(end - i, MAX_FREQUENCY));
+                i = end;
+            }
+        }
+
+        void remove(int id) {
+            int length = length(id);
+            if (length == 0) {
+                return;
+            }
+            for (int termId : decode(id)) {
+                for (RoaringBitmap level : postings.get(termId)) {
+                    if (!level.checkedRemove(id)) {
+                        break;
+                    }
+                }
+            }
+            setDocument(id, 0, null);
+            documentCount--;
+            totalLength -= length;
+        }
+
+        private void addPosting(int termId, int id, int frequency) {
+            while (postings.size() <= termId) {
+                postings.add(null);
+            }
+            RoaringBitmap[] levels = postings.get(termId);
+            if (levels == null || levels.length < frequency) {
+                int existing = levels == null ? 0 : levels.length;
+                levels = levels == null ? new RoaringBitmap[frequency] : Arrays.copyOf(levels, frequency);
+                for (int level = existing; level < frequency; level++) {
+                    levels[level] = new RoaringBitmap();
+                }
+                postings.set(termId, levels);
+            }
+            for (int level = 0; level < frequency; level++) {
+                levels[level].add(id);
+            }
+        }
+
+        void optimize() {
+            postings.forEach(levels -> {
+                if (levels != null) {
+                    for (RoaringBitmap level : levels) {
+                        level.runOptimize();
+                    }
+                }
+            });
+        }
+
+        RoaringBitmap posting(int termId) {
+            RoaringBitmap[] levels = termId >= 0 && termId < postings.size() ? postings.get(termId) : null;
+            return levels != null ? levels[0] : new RoaringBitmap();
+        }
+
+        /**
+         * 词在图片中出现的次数，不超过 MAX_FREQUENCY
+         */
+        int frequency(int termId, int id) {
+            RoaringBitmap[] levels = postings.get(termId);
+            int frequency = 0;
+            while (frequency < levels.length && levels[frequency].contains(id)) {
+                frequency++;
+            }
+            return frequency;
+        }
+
+        /**
+         * 可能满足条件的图片：短语为各词位图的交集（尚未核对相邻），前缀为各词位图的并集
+         */
+        RoaringBitmap candidates(ClauseMatch match) {
+            if (match.prefixTerms != null) {
+                RoaringBitmap result = new RoaringBitmap();
+                match.prefixTerms.forEach((int termId) -> result.or(posting(termId)));
+                return result;
+            }
+            RoaringBitmap result = posting(match.termIds[0]).clone();
+            for (int i = 1; i < match.termIds.length && !result.isEmpty(); i++) {
+                result.and(posting(match.termIds[i]));
+            }
+            return result;
+        }
+
+        /**
+         * 逆文档频率，短语的文档频率取候选集大小
+         */
+        double idf(RoaringBitmap candidates) {
+            long documentFrequency = candidates.getLongCardinality();
+            return Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        }
+
+        /**
+         * BM25 得分，单个词的词频取自位图，短语和前缀的词频由词序列统计
+         */
+        double score(int id, ClauseMatch match, double idf) {
+            int frequency;
+            if (match.prefixTerms != null) {
+                frequency = countTerms(decode(id), match.prefixTerms);
+            } else if (match.termIds.length == 1) {
+                frequency = frequency(match.termIds[0], id);
+            } else {
+                frequency = countPhrase(decode(id), match.termIds);
+            }
+            if (frequency == 0) {
+                return 0;
+            }
+            frequency = Math.min(frequency, MAX_FREQUENCY);
+            double averageLength = (double) totalLength / documentCount;
+            return idf * frequency * (K1 + 1)
+                / (frequency + K1 * (1 - B + B * length(id) / averageLength));
+        }
+
+        int length(int id) {
+            int[] block = lengths[id >>> 16];
+            return block == null ? 0 : block[id & 0xFFFF];
+        }
+
+        private void setDocument(int id, int length, byte[] sequence) {
+            if (Arrays.equals(sequence, lastSequence)) {
+                sequence = lastSequence;
+            } else if (sequence != null) {
+                lastSequence = sequence;
+            }
+            int block = id >>> 16;
+            if (lengths[block] == null) {
+                lengths[block] = new int[1 << 16];
+                sequences[block] = new byte[1 << 16][];
+            }
+            lengths[block][id & 0xFFFF] = length;
+            sequences[block][id & 0xFFFF] = sequence;
+        }
+
+        /**
+         * 图片的词ID序列
+         */
+        private int[] decode(int id) {
+            byte[] data = sequences[id >>> 16][id & 0xFFFF];
+            int[] termIds = new int[length(id)];
+            int position = 0;
+            for (int i = 0; i < termIds.length; i++) {
+                int termId = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    termId |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                termIds[i] = termId;
+            }
+            return termIds;
+        }
+
+        /**
+         * 词ID按每字节7位变长编码，常用词只占1到2字节
+         */
+        private static byte[] encode(int[] termIds) {
+            byte[] data = new byte[termIds.length * 5];
+            int size = 0;
+            for (int termId : termIds) {
+                while ((termId & ~0x7F) != 0) {
+                    data[size++] = (byte) (termId & 0x7F | 0x80);
+                    termId >>>= 7;
+                }
+                data[size++] = (byte) termId;
+            }
+            return Arrays.copyOf(data, size);
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeInt(postings.size());
+            for (RoaringBitmap[] levels : postings) {
+                out.writeInt(levels == null ? 0 : levels.length);
+                if (levels != null) {
+                    for (RoaringBitmap level : levels) {
+                        level.serialize(out);
+                    }
+                }
+            }
+            out.writeInt(documentCount);
+            for (int block = 0; block < lengths.length; block++) {
+                if (lengths[block] == null) {
+                    continue;
+                }
+                for (int slot = 0; slot < 1 << 16; slot++) {
+                    if (lengths[block][slot] > 0) {
+                        byte[] sequence = sequences[block][slot];
+                        out.writeInt(block << 16 | slot);
+                        out.writeInt(lengths[block][slot]);
+                        out.writeInt(sequence.length);
+                        out.write(sequence);
+                    }
+                }
+            }
+        }
+
+        void read(DataInput in) throws IOException {
+            int termCount = in.readInt();
+            for (int termId = 0; termId < termCount; termId++) {
+                int levelCount = in.readInt();
+                RoaringBitmap[] levels = levelCount == 0 ? null : new RoaringBitmap[levelCount];
+                for (int level = 0; level < levelCount; level++) {
+                    levels[level] = new RoaringBitmap();
+                    levels[level].deserialize(in);
+                }
+                postings.add(levels);
+            }
+            documentCount = in.readInt();
+            for (int i = 0; i < documentCount; i++) {
+                int id = in.readInt();
+                int length = in.readInt();
+                byte[] sequence = new byte[in.readInt()];
+                in.readFully(sequence);
+                setDocument(id, length, sequence);
+                totalLength += length;
+            }
+        }
+
+        private static int countTerms(int[] document, RoaringBitmap termIds) {
+            int count = 0;
+            for (int termId : document) {
+                if (termIds.contains(termId)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int countPhrase(int[] document, int[] phrase) {
+            int count = 0;
+            for (int start = 0; start + phrase.length <= document.length; start++) {
+                int i = 0;
+                while (i < phrase.length && document[start + i] == phrase[i]) {
+                    i++;
+                }
+                if (i == phrase.length) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
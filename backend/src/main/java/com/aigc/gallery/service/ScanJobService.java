@@ -0,0 +1,270 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.ScanJob;
+import com.aigc.gallery.model.ScanJobStatus;
+import com.aigc.gallery.model.ScanProgress;
+import com.aigc.gallery.model.ScanResult;
+import com.aigc.gallery.repository.ScanDirectoryRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 后台扫描任务管理
+ * 扫描在独立线程池中执行，同一目录同时只运行一个任务，进度通过 SSE 推送
+ */
+@Slf4j
+@Service
+public class ScanJobService {
+    private static final long EMITTER_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+    
+    @Autowired
+    private ImageService imageService;
+    
+    @Autowired
+    private ScanDirectoryRepository scanDirectoryRepository;
+    
+    /**
+     * 同时运行的扫描任务数量
+     */
+    @Value("${gallery.scan.max-concurrent-jobs:2}")
+    private int maxConcurrentJobs;
+    
+    /**
+     * 已结束任务的保留时间（分钟）
+     */
+    @Value("${gallery.scan.job-retention-minutes:60}")
+    private long jobRetentionMinutes;
+    
+    private ExecutorService jobExecutor;
+    
+    // 所有任务，按任务ID索引
+    private final Map<String, ScanJob> jobs = new ConcurrentHashMap<>();
+    
+    // 运行中或排队中的任务，按扫描目标索引，用于合并重复请求
+    private final Map<String, ScanJob> activeJobs = new ConcurrentHashMap<>();
+    
+    // 扫描目标的互斥锁，保证同一目录的扫描任务与监听导入不会同时执行
+    private final Map<String, ReentrantLock> targetLocks = new ConcurrentHashMap<>();
+    
+    // 订阅任务进度的 SSE 连接
+    private final Map<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        jobExecutor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentJobs), runnable -> {
+            Thread thread = new Thread(runnable, "scan-job-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        activeJobs.values().forEach(job -> job.getProgress().cancel());
+        jobExecutor.shutdownNow();
+    }
+    
+    /**
+     * 提交扫描目录任务，该目录已有未结束的任务时直接返回该任务
+     */
+    public ScanJob submitDirectoryScan(Long directoryId) {
+        String path = scanDirectoryRepository.findById(directoryId)
+            .orElseThrow(() -> new IllegalArgumentException("Directory not found"))
+            .getPath();
+        return submit(directoryKey(directoryId), new ScanJob(directoryId, path),
+            progress -> imageService.rescanDirectory(directoryId, progress));
+    }
+    
+    /**
+     * 提交按路径扫描的任务，该路径已有未结束的任务时直接返回该任务
+     */
+    public ScanJob submitPathScan(String basePath) {
+        String path = Paths.get(basePath).toAbsolutePath().normalize().toString();
+        return submit("path:" + path, new ScanJob(null, path),
+            progress -> imageService.scanAndUpdateImages(path, progress));
+    }
+    
+    public Optional<ScanJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+    
+    /**
+     * 获取所有任务，最新的在前
+     */
+    public List<ScanJob> getJobs() {
+        List<ScanJob> result = new ArrayList<>(jobs.values());
+        result.sort(Comparator.comparing(ScanJob::getCreatedTime).reversed());
+        return result;
+    }
+    
+    /**
+     * 取消任务
+     * @return 任务存在且尚未结束时返回true
+     */
+    public boolean cancel(String jobId) {
+        ScanJob job = jobs.get(jobId);
+        if (job == null || job.getStatus().isFinished()) {
+            return false;
+        }
+        job.getProgress().cancel();
+        return true;
+    }
+    
+    /**
+     * 取消指定目录正在运行的任务（目录被删除时使用）
+     */
+    public void cancelDirectoryScan(Long directoryId) {
+        ScanJob job = activeJobs.get(directoryKey(directoryId));
+        if (job != null) {
+            job.getProgress().cancel();
+        }
+    }
+    
+    /**
+     * 在目录没有运行中的扫描任务时执行操作
+     * @return 目录正在扫描而未执行时返回false
+     */
+    public boolean tryRunExclusive(Long directoryId, Runnable action) {
+        String key = directoryKey(directoryId);
+        ReentrantLock lock = lockOf(key);
+        if (activeJobs.containsKey(key) || !lock.tryLock()) {
+            return false;
+        }
+        try {
+            action.run();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 订阅任务进度，任务结束后连接自动关闭
+     */
+    public SseEmitter subscribe(String jobId) {
+        ScanJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new IllegalArgumentException("Scan job not found");
+        }
+        
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT);
+        List<SseEmitter> jobEmitters = emitters.computeIfAbsent(jobId, id -> new CopyOnWriteArrayList<>());
+        jobEmitters.add(emitter);
+        emitter.onCompletion(() -> jobEmitters.remove(emitter));
+        emitter.onTimeout(() -> jobEmitters.remove(emitter));
+        emitter.onError(e -> jobEmitters.remove(emitter));
+        
+        // 立即推送当前状态，已结束的任务直接关闭连接
+        send(emitter, job);
+        if (job.getStatus().isFinished()) {
+            emitter.complete();
+        }
+        return emitter;
+    }
+    
+    /**
+     * 定时向订阅者推送运行中任务的进度
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void publishProgress() {
+        for (ScanJob job : activeJobs.values()) {
+            List<SseEmitter> jobEmitters = emitters.get(job.getId());
+            if (jobEmitters != null) {
+                jobEmitters.forEach(emitter -> send(emitter, job));
+            }
+        }
+    }
+    
+    /**
+     * 定时清理过期的已结束任务
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeFinishedJobs() {
+        LocalDateTime expiry = LocalDateTime.now().minusMinutes(jobRetentionMinutes);
+        jobs.values().removeIf(job -> job.getStatus().isFinished() && job.getEndTime().isBefore(expiry));
+    }
+    
+    private ScanJob submit(String key, ScanJob newJob, Function<ScanProgress, ScanResult> task) {
+        ScanJob job = activeJobs.compute(key, (k, existing) ->
+            existing != null && !existing.getStatus().isFinished() ? existing : newJob);
+        if (job != newJob) {
+            return job;
+        }
+        
+        jobs.put(job.getId(), job);
+        jobExecutor.execute(() -> run(key, job, task));
+        return job;
+    }
+    
+    private void run(String key, ScanJob job, Function<ScanProgress, ScanResult> task) {
+        ReentrantLock lock = lockOf(key);
+        lock.lock();
+        job.setStartTime(LocalDateTime.now());
+        job.setStatus(ScanJobStatus.RUNNING);
+        try {
+            job.getProgress().checkCancelled();
+            job.setResult(task.apply(job.getProgress()));
+            job.setStatus(ScanJobStatus.COMPLETED);
+        } catch (CancellationException e) {
+            job.setStatus(ScanJobStatus.CANCELLED);
+        } catch (Exception e) {
+            log.error("Scan job failed: " + job.getPath(), e);
+            job.setError(e.getMessage());
+            job.setStatus(ScanJobStatus.FAILED);
+        } finally {
+            lock.unlock();
+            job.setEndTime(LocalDateTime.now());
+            activeJobs.remove(key, job);
+            finish(job);
+        }
+        log.info("Scan job {} for {} finished: {}", job.getId(), job.getPath(), job.getStatus());
+    }
+    
+    private String directoryKey(Long directoryId) {
+        return "directory:" + directoryId;
+    }
+    
+    private ReentrantLock lockOf(String key) {
+        return targetLocks.computeIfAbsent(key, k -> new ReentrantLock());
+    }
+    
+    /**
+     * 推送最终状态并关闭所有订阅连接
+     */
+    private void finish(ScanJob job) {
+        List<SseEmitter> jobEmitters = emitters.remove(job.getId());
+        if (jobEmitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : jobEmitters) {
+            send(emitter, job);
+            emitter.complete();
+        }
+    }
+    
+    private void send(SseEmitter emitter, ScanJob job) {
+        try {
+            emitter.send(SseEmitter.event()
+                .name(job.getStatus().isFinished() ? "done" : "progress")
+                .data(job));
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        }
+    }
+}
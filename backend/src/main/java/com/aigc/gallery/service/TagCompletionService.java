@@ -0,0 +1,218 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.TagCompletion;
+import com.aigc.gallery.model.TagType;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 标签和画师名称的前缀自动补全，结果按使用次数从高到低排序
+ * 名称按小写排序存放，前缀对应其中连续的一段，用二分查找定位；
+ * 使用次数上建线段树，从区间中逐个取出最大值得到前K个，查询代价与匹配数量无关
+ * 启动时从标签字典构建，导入或删除图片后在后台重建，查询始终读取完整的快照
+ */
+@Slf4j
+@Service
+public class TagCompletionService {
+    public static final int MAX_LIMIT = 100;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile Map<TagType, CompletionIndex> indexes = Collections.emptyMap();
+
+    // 已有等待执行的重建时不再提交，导入期间的多次刷新合并为一次
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tag-completion-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * 从标签字典构建补全索引，只包含仍在使用的标签
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        Map<TagType, List<String>> names = new EnumMap<>(TagType.class);
+        Map<TagType, List<Long>> counts = new EnumMap<>(TagType.class);
+        for (TagType type : TagType.values()) {
+            names.put(type, new ArrayList<>());
+            counts.put(type, new ArrayList<>());
+        }
+        // 几乎所有标签都满足条件，顺序读取整表比走 (type, usage_count) 索引再逐行回表快得多，因此在内存中过滤
+        jdbcTemplate.query("SELECT type, name, usage_count FROM tag", rs -> {
+            long count = rs.getLong(3);
+            if (count > 0) {
+                TagType type = TagType.valueOf(rs.getString(1));
+                names.get(type).add(rs.getString(2));
+                counts.get(type).add(count);
+            }
+        });
+
+        Map<TagType, CompletionIndex> rebuilt = new EnumMap<>(TagType.class);
+        for (TagType type : TagType.values()) {
+            rebuilt.put(type, new CompletionIndex(names.get(type), counts.get(type)));
+        }
+        indexes = rebuilt;
+        log.debug("Tag completion index built: {} tags, {} artists in {} ms", rebuilt.get(TagType.TAG).size(),
+            rebuilt.get(TagType.ARTIST).size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 在后台重建索引，标签使用次数变化后调用
+     */
+    public void refresh() {
+        if (refreshPending.compareAndSet(false, true)) {
+            refreshExecutor.execute(() -> {
+                refreshPending.set(false);
+                try {
+                    rebuild();
+                } catch (Exception e) {
+                    log.warn("Failed to rebuild tag completion index", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 查找以 prefix 开头（不区分大小写）的名称，空前缀返回最常用的名称
+     * @param limit 返回数量，最多 {@link #MAX_LIMIT}
+     */
+    public List<TagCompletion> complete(TagType type, String prefix, int limit) {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        CompletionIndex index = indexes.get(type);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        return index.complete(prefix == null ? "" : prefix.trim().toLowerCase(Locale.ROOT), limit);
+    }
+
+    /**
+     * 不可变的补全索引快照
+     */
+    private static class CompletionIndex {
+        private final String[] keys;
+        private final String[] names;
+        private final long[] counts;
+        // 线段树，叶子在 [n, 2n)，每个节点保存其区间内使用次数最大的位置
+        private final int[] tree;
+
+        CompletionIndex(List<String> names, List<Long> counts) {
+            Integer[] order = new Integer[names.size()];
+            String[] lowerCase = new String[names.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+                lowerCase[i] = names.get(i).toLowerCase(Locale.ROOT);
+            }
+            Arrays.sort(order, Comparator.<Integer, String>comparing(i -> lowerCase[i]).thenComparing(names::get));
+
+            int n = order.length;
+            this.keys = new String[n];
+            this.names = new String[n];
+            this.counts = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = lowerCase[order[i]];
+                this.names[i] = names.get(order[i]);
+                this.counts[i] = counts.get(order[i]);
+            }
+
+            tree = new int[2 * n];
+            for (int i = 0; i < n; i++) {
+                tree[n + i] = i;
+            }
+            for (int i = n - 1; i > 0; i--) {
+                tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+            }
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        List<TagCompletion> complete(String prefix, int limit) {
+            // 前缀匹配的名称位于 [from, to)
+            int from = lowerBound(prefix);
+            int to = prefix.isEmpty() ? keys.length : lowerBound(prefix + Character.MAX_VALUE);
+            List<TagCompletion> result = new ArrayList<>(Math.min(limit, to - from));
+            if (from >= to) {
+                return result;
+            }
+
+            // 候选区间按区间最大值排序，取出最大值后把区间拆成左右两段放回
+            PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> better(a[2], b[2]) == a[2] ? -1 : 1);
+            ranges.add(new int[]{from, to, rangeMax(from, to)});
+            while (!ranges.isEmpty() && result.size() < limit) {
+                int[] range = ranges.poll();
+                int best = range[2];
+                result.add(new TagCompletion(names[best], counts[best]));
+                if (range[0] < best) {
+                    ranges.add(new int[]{range[0], best, rangeMax(range[0], best)});
+                }
+                if (best + 1 < range[1]) {
+                    ranges.add(new int[]{best + 1, range[1], rangeMax(best + 1, range[1])});
+                }
+            }
+            return result;
+        }
+
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * [from, to) 中使用次数最大的位置
+         */
+        private int rangeMax(int from, int to) {
+            int best = from;
+            for (int l = from + keys.length, r = to + keys.length; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    best = better(best, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    best = better(best, tree[--r]);
+                }
+            }
+            return best;
+        }
+
+        /**
+         * 使用次数多的优先，相同时名称靠前的优先
+         */
+        private int better(int a, int b) {
+            if (counts[a] != counts[b]) {
+                return counts[a] > counts[b] ? a : b;
+            }
+            return Math.min(a, b);
+        }
+    }
+}
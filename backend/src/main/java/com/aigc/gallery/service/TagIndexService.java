@@ -0,0 +1,508 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.ImageInfo;
+import com.aigc.gallery.model.TagType;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 标签、画师到图片ID位图的倒排索引，支持 AND / OR / NOT 组合查询
+ * 启动时从标签字典构建，导入和删除图片时增量更新；结果与其他列表一样按 (createTime, id) 倒序分页
+ *
+ * 查询语法：
+ * <pre>
+ *   1girl AND (blue sky OR sunset) AND NOT artist:foo
+ * </pre>
+ * 运算符为大写的 AND、OR、NOT，NOT 优先级最高、OR 最低，可用括号分组；
+ * 标签可包含空格，含有运算符或括号的标签用双引号括起来；artist: 前缀表示画师；匹配不区分大小写
+ */
+@Slf4j
+@Service
+public class TagIndexService {
+    private static final String ARTIST_PREFIX = "artist:";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<String, RoaringBitmap> tagIndex = new HashMap<>();
+    private final Map<String, RoaringBitmap> artistIndex = new HashMap<>();
+
+    // 所有已索引的图片，用于 NOT 运算
+    private final RoaringBitmap allImages = new RoaringBitmap();
+
+    // 所有图片按 (createTime, id) 倒序排列的ID和对应的创建时间（微秒），用于结果较多时按顺序扫描分页
+    private int[] orderIds = new int[0];
+    private long[] orderTimes = new long[0];
+    private int orderSize;
+
+    // 图片ID到创建时间（微秒）的映射，按ID高16位分页，与位图的分块方式相同；用于结果较少时只对结果排序
+    private final long[][] createTimes = new long[1 << 16][];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 从数据库构建索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            long start = System.currentTimeMillis();
+            tagIndex.clear();
+            artistIndex.clear();
+            allImages.clear();
+            Arrays.fill(createTimes, null);
+
+            orderSize = 0;
+            jdbcTemplate.query("SELECT id, create_time FROM image_info ORDER BY create_time DESC NULLS LAST, id DESC",
+                rs -> {
+                    int id = toIndexId(rs.getLong(1));
+                    long time = toOrderTime(rs.getObject(2, LocalDateTime.class));
+                    allImages.add(id);
+                    appendOrder(id, time);
+                    setCreateTime(id, time);
+                });
+            jdbcTemplate.query("SELECT l.image_id, t.name, t.type FROM image_tag_link l JOIN tag t ON t.id = l.tag_id",
+                rs -> {
+                    Map<String, RoaringBitmap> index = TagType.ARTIST.name().equals(rs.getString(3)) ? artistIndex : tagIndex;
+                    add(index, rs.getString(2), toIndexId(rs.getLong(1)));
+                });
+
+            optimize(tagIndex.values());
+            optimize(artistIndex.values());
+            allImages.runOptimize();
+            log.info("Tag index built: {} images, {} tags, {} artists in {} ms", allImages.getCardinality(),
+                tagIndex.size(), artistIndex.size(), System.currentTimeMillis() - start);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 索引新增或更新的图片，更新的图片先移除原有的标签
+     * @param replaced 本批中覆盖已有记录的图片ID
+     */
+    public void index(Collection<ImageInfo> images, Collection<Long> replaced) {
+        if (images.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!replaced.isEmpty()) {
+                RoaringBitmap replacedIds = toBitmap(replaced);
+                removeFromAll(replacedIds);
+                removeFromOrder(replacedIds);
+            }
+            // 已在排序数组中的图片先移除，避免重复
+            RoaringBitmap indexedIds = toBitmap(images.stream().map(ImageInfo::getId).toList());
+            if (RoaringBitmap.intersects(indexedIds, allImages)) {
+                removeFromOrder(indexedIds);
+            }
+            mergeOrder(images);
+            for (ImageInfo image : images) {
+                int id = toIndexId(image.getId());
+                allImages.add(id);
+                if (image.getTags() != null) {
+                    image.getTags().forEach(tag -> add(tagIndex, tag, id));
+                }
+                if (image.getArtists() != null) {
+                    image.getArtists().forEach(artist -> add(artistIndex, artist, id));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中移除已删除的图片
+     */
+    public void remove(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            RoaringBitmap removed = toBitmap(ids);
+            removeFromAll(removed);
+            removeFromOrder(removed);
+            allImages.andNot(removed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按查询表达式查找图片
+     * @return 匹配的图片ID位图（副本）
+     * @throws IllegalArgumentException 查询语法错误
+     */
+    public RoaringBitmap query(String query) {
+        List<String> tokens = tokenize(query);
+        lock.readLock().lock();
+        try {
+            Parser parser = new Parser(tokens);
+            RoaringBitmap result = parser.parseOr();
+            if (parser.hasNext()) {
+                throw new IllegalArgumentException("Unexpected token in query: " + parser.peek());
+            }
+            // 单个词项直接返回索引中的位图，需要复制后再交给调用方
+            return result.clone();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查找包含任一标签的图片
+     */
+    public RoaringBitmap anyOf(Collection<String> tags) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap result = new RoaringBitmap();
+            for (String tag : tags) {
+                result.or(lookup(tag.trim()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按 (createTime, id) 倒序取结果中的一页ID，与时间线和 feed 的顺序一致
+     * 结果较少时只对结果排序；结果较多时按排序数组扫描，取到一页即停止
+     */
+    public List<Long> page(RoaringBitmap ids, long offset, int size) {
+        lock.readLock().lock();
+        try {
+            int cardinality = ids.getCardinality();
+            if (cardinality == 0 || offset >= cardinality || size <= 0) {
+                return new ArrayList<>();
+            }
+            // 扫描时平均需要检查的元素个数与对结果排序的比较次数
+            double scanCost = Math.min(orderSize, (double) (offset + size) * orderSize / cardinality);
+            double sortCost = (double) cardinality * (32 - Integer.numberOfLeadingZeros(cardinality));
+            return sortCost < scanCost ? sortedPage(ids, offset, size) : scannedPage(ids, offset, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Long> sortedPage(RoaringBitmap ids, long offset, int size) {
+        // 查询结果可能包含之后已删除的图片
+        int[] matches = RoaringBitmap.and(ids, allImages).toArray();
+        Integer[] positions = new Integer[matches.length];
+        long[] times = new long[matches.length];
+        for (int i = 0; i < matches.length; i++) {
+            positions[i] = i;
+            times[i] = createTime(matches[i]);
+        }
+        Arrays.sort(positions, (a, b) -> compareOrder(times[a], matches[a], times[b], matches[b]));
+
+        List<Long> page = new ArrayList<>(size);
+        for (long i = offset; i < matches.length && page.size() < size; i++) {
+            page.add(Integer.toUnsignedLong(matches[positions[(int) i]]));
+        }
+        return page;
+    }
+
+    private List<Long> scannedPage(RoaringBitmap ids, long offset, int size) {
+        List<Long> page = new ArrayList<>(size);
+        long skipped = 0;
+        for (int i = 0; i < orderSize && page.size() < size; i++) {
+            if (ids.contains(orderIds[i])) {
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    page.add(Integer.toUnsignedLong(orderIds[i]));
+                }
+            }
+        }
+        return page;
+    }
+
+    private RoaringBitmap lookup(String term) {
+        if (term.regionMatches(true, 0, ARTIST_PREFIX, 0, ARTIST_PREFIX.length())) {
+            return artistIndex.getOrDefault(normalize(term.substring(ARTIST_PREFIX.length())), new RoaringBitmap());
+        }
+        return tagIndex.getOrDefault(normalize(term), new RoaringBitmap());
+    }
+
+    /**
+     * 把新索引的图片按 (createTime, id) 倒序合并到排序数组中
+     * 从末尾开始原地合并，数组容量按倍数增长，不必每批都重新分配
+     */
+    private void mergeOrder(Collection<ImageInfo> images) {
+        int[] newIds = new int[images.size()];
+        long[] newTimes = new long[images.size()];
+        Integer[] positions = new Integer[images.size()];
+        int count = 0;
+        for (ImageInfo image : images) {
+            newIds[count] = toIndexId(image.getId());
+            newTimes[count] = toOrderTime(image.getCreateTime());
+            setCreateTime(newIds[count], newTimes[count]);
+            positions[count] = count;
+            count++;
+        }
+        Arrays.sort(positions, (a, b) -> compareOrder(newTimes[a], newIds[a], newTimes[b], newIds[b]));
+
+        ensureOrderCapacity(orderSize + count);
+        int i = orderSize - 1;
+        int j = count - 1;
+        int k = orderSize + count - 1;
+        while (j >= 0) {
+            if (i >= 0 && compareOrder(orderTimes[i], orderIds[i], newTimes[positions[j]], newIds[positions[j]]) > 0) {
+                orderIds[k] = orderIds[i];
+                orderTimes[k--] = orderTimes[i--];
+            } else {
+                orderIds[k] = newIds[positions[j]];
+                orderTimes[k--] = newTimes[positions[j--]];
+            }
+        }
+        orderSize += count;
+    }
+
+    private void removeFromOrder(RoaringBitmap removed) {
+        int k = 0;
+        for (int i = 0; i < orderSize; i++) {
+            if (!removed.contains(orderIds[i])) {
+                orderIds[k] = orderIds[i];
+                orderTimes[k++] = orderTimes[i];
+            }
+        }
+        orderSize = k;
+    }
+
+    private void appendOrder(int id, long time) {
+        ensureOrderCapacity(orderSize + 1);
+        orderIds[orderSize] = id;
+        orderTimes[orderSize++] = time;
+    }
+
+    private void ensureOrderCapacity(int capacity) {
+        if (capacity > orderIds.length) {
+            int newCapacity = Math.max(capacity, Math.max(16, orderIds.length * 2));
+            orderIds = Arrays.copyOf(orderIds, newCapacity);
+            orderTimes = Arrays.copyOf(orderTimes, newCapacity);
+        }
+    }
+
+    private void setCreateTime(int id, long time) {
+        long[] block = createTimes[id >>> 16];
+        if (block == null) {
+            block = new long[1 << 16];
+            createTimes[id >>> 16] = block;
+        }
+        block[id & 0xFFFF] = time;
+    }
+
+    /**
+     * 已索引图片的创建时间，调用方保证ID在 allImages 中
+     */
+    private long createTime(int id) {
+        return createTimes[id >>> 16][id & 0xFFFF];
+    }
+
+    /**
+     * 倒序比较：创建时间晚的在前，相同时ID大的在前
+     */
+    private static int compareOrder(long time1, int id1, long time2, int id2) {
+        int result = Long.compare(time2, time1);
+        return result != 0 ? result : Integer.compareUnsigned(id2, id1);
+    }
+
+    /**
+     * 创建时间转换为微秒（与数据库 TIMESTAMP 精度一致），没有创建时间的排在最后
+     */
+    private static long toOrderTime(LocalDateTime time) {
+        if (time == null) {
+            return Long.MIN_VALUE;
+        }
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    private void removeFromAll(RoaringBitmap removed) {
+        removeFrom(tagIndex, removed);
+        removeFrom(artistIndex, removed);
+    }
+
+    private static void removeFrom(Map<String, RoaringBitmap> index, RoaringBitmap removed) {
+        Iterator<RoaringBitmap> iterator = index.values().iterator();
+        while (iterator.hasNext()) {
+            RoaringBitmap bitmap = iterator.next();
+            bitmap.andNot(removed);
+            if (bitmap.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void add(Map<String, RoaringBitmap> index, String key, int id) {
+        if (key != null && !key.isBlank()) {
+            index.computeIfAbsent(normalize(key), k -> new RoaringBitmap()).add(id);
+        }
+    }
+
+    private static void optimize(Collection<RoaringBitmap> bitmaps) {
+        bitmaps.forEach(RoaringBitmap::runOptimize);
+    }
+
+    private static RoaringBitmap toBitmap(Collection<Long> ids) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        ids.forEach(id -> bitmap.add(toIndexId(id)));
+        return bitmap;
+    }
+
+    private static String normalize(String key) {
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 位图按32位无符号整数存储ID
+     */
+    private static int toIndexId(long id) {
+        if (id < 0 || id > 0xFFFFFFFFL) {
+            throw new IllegalStateException("Image id out of index range: " + id);
+        }
+        return (int) id;
+    }
+
+    /**
+     * 拆分查询：括号、运算符、带引号的词项和普通词项；相邻的普通单词合并为一个含空格的标签
+     */
+    private static List<String> tokenize(String query) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Query is empty");
+        }
+        List<String> tokens = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (c == '(' || c == ')') {
+                flushTerm(tokens, term);
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                flushTerm(tokens, term);
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed quote in query");
+                }
+                tokens.add(query.substring(i, end + 1));
+                i = end + 1;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else {
+                int end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end))
+                        && "()\"".indexOf(query.charAt(end)) < 0) {
+                    end++;
+                }
+                String word = query.substring(i, end);
+                if (isOperator(word)) {
+                    flushTerm(tokens, term);
+                    tokens.add(word);
+                } else {
+                    if (term.length() > 0) {
+                        term.append(' ');
+                    }
+                    term.append(word);
+                }
+                i = end;
+            }
+        }
+        flushTerm(tokens, term);
+        return tokens;
+    }
+
+    private static void flushTerm(List<String> tokens, StringBuilder term) {
+        if (term.length() > 0) {
+            tokens.add(term.toString());
+            term.setLength(0);
+        }
+    }
+
+    private static boolean isOperator(String token) {
+        return "AND".equals(token) || "OR".equals(token) || "NOT".equals(token);
+    }
+
+    /**
+     * 递归下降解析并直接计算位图：or := and (OR and)*，and := not (AND not)*，not := NOT not | primary
+     */
+    private class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        boolean hasNext() {
+            return position < tokens.size();
+        }
+
+        String peek() {
+            return tokens.get(position);
+        }
+
+        RoaringBitmap parseOr() {
+            RoaringBitmap result = parseAnd();
+            while (hasNext() && "OR".equals(peek())) {
+                position++;
+                result = RoaringBitmap.or(result, parseAnd());
+            }
+            return result;
+        }
+
+        RoaringBitmap parseAnd() {
+            RoaringBitmap result = parseNot();
+            while (hasNext() && "AND".equals(peek())) {
+                position++;
+                result = RoaringBitmap.and(result, parseNot());
+            }
+            return result;
+        }
+
+        RoaringBitmap parseNot() {
+            if (hasNext() && "NOT".equals(peek())) {
+                position++;
+                return RoaringBitmap.andNot(allImages, parseNot());
+            }
+            return parsePrimary();
+        }
+
+        RoaringBitmap parsePrimary() {
+            if (!hasNext()) {
+                throw new IllegalArgumentException("Unexpected end of query");
+            }
+            String token = tokens.get(position++);
+            if ("(".equals(token)) {
+                RoaringBitmap result = parseOr();
+                if (!hasNext() || !")".equals(tokens.get(position++))) {
+                    throw new IllegalArgumentException("Missing closing parenthesis in query");
+                }
+                return result;
+            }
+            if (")".equals(token) || isOperator(token)) {
+                throw new IllegalArgumentException("Unexpected token in query: " + token);
+            }
+            if (token.startsWith("\"")) {
+                token = token.substring(1, token.length() - 1);
+            }
+            return lookup(token);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.aigc.gallery.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 缩略图生成：解码时按比例抽样、逐级缩小，并在独立的线程池中与元数据解析分开执行
+ * 缩略图存放在缓存目录中，按容量上限和最近访问时间淘汰，被淘汰的缩略图在下次访问时重新生成
+ */
+@Slf4j
+@Service
+public class ThumbnailService {
+
+    public static final String URL_PREFIX = "/thumbnails/";
+    private static final String THUMBNAIL_DIR = "thumbnails";
+    // 超出容量上限时淘汰到上限的这一比例，避免每次写入都触发淘汰
+    private static final double EVICTION_TARGET_RATIO = 0.9;
+
+    @Value("${gallery.thumbnail.width:300}")
+    private int width;
+
+    @Value("${gallery.thumbnail.quality:0.75}")
+    private float quality;
+
+    /**
+     * 缩略图生成线程数，0 表示使用CPU核数
+     */
+    @Value("${gallery.thumbnail.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * 为true时导入不生成缩略图，首次访问时再生成
+     */
+    @Value("${gallery.thumbnail.lazy:true}")
+    private boolean lazy;
+
+    @Value("${gallery.cache.directory:cache}")
+    private String cacheDirectory;
+
+    /**
+     * 缩略图缓存容量上限
+     */
+    @Value("${gallery.cache.max-size:1GB}")
+    private DataSize maxSize;
+
+    /**
+     * 超过该时长未被访问的缩略图会被淘汰
+     */
+    @Value("${gallery.cache.max-age:7d}")
+    private Duration maxAge;
+
+    private Path directory;
+
+    private ExecutorService thumbnailExecutor;
+
+    // 缩略图文件名到缓存条目，记录文件大小和最近访问时间
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    // 正在生成的缩略图，同一缩略图的并发请求共享一次生成
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    @PostConstruct
+    public void init() {
+        directory = Paths.get(cacheDirectory, THUMBNAIL_DIR).toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(directory);
+            loadEntries();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create thumbnail directory", e);
+        }
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        thumbnailExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thumbnailExecutor.shutdownNow();
+    }
+
+    /**
+     * 导入时是否跳过缩略图生成
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * 缩略图文件名，缩略图统一为JPEG
+     * @param key 内容哈希或引用模式的源文件键
+     */
+    public static String nameFor(String key) {
+        return "thumb_" + key + ".jpg";
+    }
+
+    /**
+     * 缩略图缓存目录
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 缩略图文件在缓存目录中的路径
+     */
+    public Path resolve(String thumbnailName) {
+        Path path = directory.resolve(thumbnailName).normalize();
+        return path.getParent().equals(directory) ? path : null;
+    }
+
+    /**
+     * 获取缩略图文件，不存在或已被淘汰时从源图片生成
+     * @return 缩略图文件，生成失败返回null
+     */
+    public Path getThumbnail(Path source, String thumbnailName) {
+        return generate(source, thumbnailName) != null ? resolve(thumbnailName) : null;
+    }
+
+    /**
+     * 生成缩略图，同名缩略图已存在时直接返回，同名缩略图的并发生成只执行一次
+     * @return 缩略图访问路径，生成失败返回null
+     */
+    public String generate(Path source, String thumbnailName) {
+        Path target = resolve(thumbnailName);
+        if (target == null) {
+            return null;
+        }
+        // 缩略图按内容（或源文件路径+指纹）命名，同名缩略图即为同一内容，无需重复生成
+        CacheEntry entry = entries.get(thumbnailName);
+        if (entry != null && Files.exists(target)) {
+            entry.lastAccess = System.currentTimeMillis();
+            return URL_PREFIX + thumbnailName;
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(thumbnailName, created);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            String thumbnailPath = createAndStore(source, target);
+            created.complete(thumbnailPath);
+            return thumbnailPath;
+        } catch (RuntimeException e) {
+            created.complete(null);
+            throw e;
+        } finally {
+            inFlight.remove(thumbnailName, created);
+        }
+    }
+
+    /**
+     * 删除缩略图
+     * @param thumbnailPath 缩略图访问路径
+     */
+    public void delete(String thumbnailPath) throws IOException {
+        if (thumbnailPath == null || !thumbnailPath.startsWith(URL_PREFIX)) {
+            return;
+        }
+        String thumbnailName = thumbnailPath.substring(URL_PREFIX.length());
+        Path target = resolve(thumbnailName);
+        if (target != null) {
+            Files.deleteIfExists(target);
+            removeEntry(thumbnailName);
+        }
+    }
+
+    /**
+     * 在缩略图线程池中并行生成一批缩略图
+     * @param sources 缩略图文件名到源图片的映射
+     * @return 缩略图文件名到访问路径的映射，生成失败的不包含在内
+     */
+    public Map<String, String> generateAll(Map<String, Path> sources) {
+        Map<String, Future<String>> futures = new LinkedHashMap<>();
+        sources.forEach((name, source) ->
+            futures.put(name, thumbnailExecutor.submit(() -> generate(source, name))));
+
+        Map<String, String> thumbnails = new HashMap<>();
+        try {
+            for (Map.Entry<String, Future<String>> entry : futures.entrySet()) {
+                try {
+                    String thumbnailPath = entry.getValue().get();
+                    if (thumbnailPath != null) {
+                        thumbnails.put(entry.getKey(), thumbnailPath);
+                    }
+                } catch (ExecutionException e) {
+                    log.error("Error generating thumbnail: " + entry.getKey(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.values().forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Thumbnail generation interrupted", e);
+        }
+        return thumbnails;
+    }
+
+    /**
+     * 淘汰超过最长保留时间未被访问的缩略图，并把缓存控制在容量上限以内
+     */
+    @Scheduled(fixedDelayString = "${gallery.cache.eviction-interval:PT10M}")
+    public void evict() {
+        evictionLock.lock();
+        try {
+            long expiry = System.currentTimeMillis() - maxAge.toMillis();
+            // 访问时间会被并发更新，排序前先取快照
+            List<EvictionCandidate> candidates = new ArrayList<>(entries.size());
+            entries.forEach((name, entry) -> candidates.add(new EvictionCandidate(name, entry.lastAccess)));
+            candidates.sort(Comparator.comparingLong(EvictionCandidate::lastAccess));
+
+            long target = (long) (maxSize.toBytes() * EVICTION_TARGET_RATIO);
+            int evicted = 0;
+            for (EvictionCandidate candidate : candidates) {
+                if (candidate.lastAccess() >= expiry && totalBytes.get() <= target) {
+                    break;
+                }
+                // 正在生成的缩略图不淘汰
+                if (inFlight.containsKey(candidate.name())) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(directory.resolve(candidate.name()));
+                    removeEntry(candidate.name());
+                    evicted++;
+                } catch (IOException e) {
+                    log.warn("Failed to evict thumbnail: {}", candidate.name(), e);
+                }
+            }
+            if (evicted > 0) {
+                log.debug("Evicted {} thumbnails, cache size {} bytes", evicted, totalBytes.get());
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 生成缩略图并登记到缓存，超出容量上限时触发淘汰
+     */
+    private String createAndStore(Path source, Path target) {
+        String thumbnailName = target.getFileName().toString();
+        try {
+            if (!Files.exists(target)) {
+                BufferedImage thumbnail = createThumbnail(source);
+                if (thumbnail == null) {
+                    log.warn("Unsupported image format for thumbnail: {}", source);
+                    return null;
+                }
+                write(thumbnail, target);
+            }
+            putEntry(thumbnailName, Files.size(target), System.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("Error generating thumbnail for: " + source, e);
+            return null;
+        }
+        if (totalBytes.get() > maxSize.toBytes() && evictionLock.tryLock()) {
+            try {
+                evict();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return URL_PREFIX + thumbnailName;
+    }
+
+    /**
+     * 启动时登记已有的缩略图，以文件修改时间作为最近访问时间
+     */
+    private void loadEntries() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if (name.startsWith(".")) {
+                    // 上次运行残留的临时文件
+                    Files.deleteIfExists(path);
+                } else if (attrs.isRegularFile()) {
+                    putEntry(name, attrs.size(), attrs.lastModifiedTime().toMillis());
+                }
+            }
+        }
+        log.info("Thumbnail cache: {} files, {} bytes", entries.size(), totalBytes.get());
+    }
+
+    private void putEntry(String thumbnailName, long size, long lastAccess) {
+        CacheEntry previous = entries.put(thumbnailName, new CacheEntry(size, lastAccess));
+        totalBytes.addAndGet(size - (previous != null ? previous.size : 0));
+    }
+
+    private void removeEntry(String thumbnailName) {
+        CacheEntry removed = entries.remove(thumbnailName);
+        if (removed != null) {
+            totalBytes.addAndGet(-removed.size);
+        }
+    }
+
+    /**
+     * 读取并缩放图片，解码时按目标尺寸抽样，避免为大图分配完整分辨率的缓冲区
+     */
+    private BufferedImage createThumbnail(Path source) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+
+                // 抽样后保留至少两倍目标宽度，再逐级缩小以保证画质
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, sourceWidth / (width * 2));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return scale(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 逐级减半缩小到目标宽度，每一步双线性插值，比一次性缩放锯齿更少
+     */
+    private BufferedImage scale(BufferedImage image) {
+        int targetWidth = Math.min(width, image.getWidth());
+        int targetHeight = Math.max(1, (int) ((double) targetWidth / image.getWidth() * image.getHeight()));
+
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(targetWidth, currentWidth / 2);
+            currentHeight = Math.max(targetHeight, currentHeight / 2);
+
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = next.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            g2d.dispose();
+            current = next;
+        } while (currentWidth > targetWidth || currentHeight > targetHeight);
+        return current;
+    }
+
+    /**
+     * 按配置的质量写出JPEG，先写入临时文件再移动，避免并发生成时读到不完整的文件
+     */
+    private void write(BufferedImage thumbnail, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        Path temp = target.resolveSibling("." + UUID.randomUUID() + ".tmp");
+        try {
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(temp.toFile())) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(thumbnail, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private record EvictionCandidate(String name, long lastAccess) {
+    }
+
+    private static class CacheEntry {
+        private final long size;
+        private volatile long lastAccess;
+
+        CacheEntry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -1,24 +1,52 @@
 package com.aigc.gallery.service.impl;
 
+import com.aigc.gallery.model.CursorPage;
+import com.aigc.gallery.model.DateBucket;
 import com.aigc.gallery.model.ImageInfo;
+import com.aigc.gallery.model.ImageServingInfo;
+import com.aigc.gallery.model.ImageSummary;
+import com.aigc.gallery.model.ImageSourceState;
+import com.aigc.gallery.model.LegacyImage;
 import com.aigc.gallery.model.ScanDirectory;
+import com.aigc.gallery.model.ScanProgress;
+import com.aigc.gallery.model.ScanResult;
+import com.aigc.gallery.model.ScannedFile;
+import com.aigc.gallery.model.StorageMode;
+import com.aigc.gallery.model.Tag;
+import com.aigc.gallery.model.TagCompletion;
+import com.aigc.gallery.model.TagType;
+import com.aigc.gallery.repository.ImageBatchWriter;
 import com.aigc.gallery.repository.ImageRepository;
+import com.aigc.gallery.repository.MetadataBlobStore;
 import com.aigc.gallery.repository.ScanDirectoryRepository;
+import com.aigc.gallery.repository.TagRepository;
 import com.aigc.gallery.service.ImageScanService;
+import com.aigc.gallery.service.ImageServingCache;
 import com.aigc.gallery.service.ImageService;
+import com.aigc.gallery.service.ImageStoreService;
+import com.aigc.gallery.service.PromptIndexService;
+import com.aigc.gallery.service.TagCompletionService;
+import com.aigc.gallery.service.TagIndexService;
+import com.aigc.gallery.service.ThumbnailService;
+import com.aigc.gallery.util.FileFingerprint;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -39,201 +67,360 @@ public class ImageServiceImpl implements ImageService {
     @Autowired
     private ScanDirectoryRepository scanDirectoryRepository;
     
-    private static final int THUMBNAIL_WIDTH = 300;
-    private static final String IMAGES_DIR = "images";
-    private static final String THUMBNAIL_DIR = "thumbnails";
+    @Autowired
+    private FileFingerprint fileFingerprint;
+    
+    @Autowired
+    private ImageStoreService imageStoreService;
+    
+    @Autowired
+    private ImageBatchWriter imageBatchWriter;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    @Autowired
+    private TagIndexService tagIndexService;
+    
+    @Autowired
+    private TagRepository tagRepository;
+    
+    @Autowired
+    private MetadataBlobStore metadataBlobStore;
+    
+    @Autowired
+    private PromptIndexService promptIndexService;
+    
+    @Autowired
+    private ImageServingCache imageServingCache;
+    
+    @Autowired
+    private TagCompletionService tagCompletionService;
+    
+    /**
+     * 扫描结果每提交一次事务写入的图片数量
+     */
+    @Value("${gallery.scan.commit-size:1000}")
+    private int commitSize;
+    
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     
-    public ImageServiceImpl() {
-        // 创建必要的目录
-        createRequiredDirectories();
+    // 游标分页不限日期时使用的时间范围
+    private static final LocalDateTime FEED_MIN_TIME = LocalDateTime.of(1, 1, 1, 0, 0);
+    private static final LocalDateTime FEED_MAX_TIME = LocalDateTime.of(9999, 12, 31, 0, 0);
+    
+    private static final int FEED_MAX_SIZE = 1000;
+    
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ScanResult scanAndUpdateImages(String basePath, ScanProgress progress) {
+        Path root = Paths.get(basePath).toAbsolutePath().normalize();
+        List<Path> files = imageScanService.listImageFiles(basePath).stream()
+            .map(ScannedFile::getPath)
+            .collect(Collectors.toList());
+        progress.addDiscovered(files.size());
+        
+        // 保存或更新图片信息
+        ScanResult result = new ScanResult();
+        ingestFiles(root, files, null, StorageMode.COPY, Collections.emptyMap(), result, progress);
+        return result;
     }
     
-    private void createRequiredDirectories() {
-        try {
-            Files.createDirectories(Paths.get(IMAGES_DIR));
-            Files.createDirectories(Paths.get(THUMBNAIL_DIR));
-        } catch (IOException e) {
-            log.error("Failed to create required directories", e);
-            throw new RuntimeException("Failed to create required directories", e);
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, List<ImageSummary>> getImagesByDate(Pageable pageable) {
+        // 按创建时间倒序分页，同一天的图片在相邻的页中
+        List<ImageSummary> images = imageRepository.findAllSummaries(withDefaultSort(pageable)).getContent();
+        return images.stream()
+            .collect(Collectors.groupingBy(
+                image -> image.getCreateTime().format(DATE_FORMATTER),
+                TreeMap::new,
+                Collectors.toList()
+            ));
+    }
+    
+    @Override
+    @Transactional(readOnly = true)
+    public List<DateBucket> getTimeline(String granularity) {
+        List<DateBucket> buckets = new ArrayList<>();
+        if ("day".equalsIgnoreCase(granularity)) {
+            for (Object[] row : imageRepository.countByDay()) {
+                buckets.add(new DateBucket(((LocalDate) row[0]).format(DATE_FORMATTER), (Long) row[1]));
+            }
+        } else if ("month".equalsIgnoreCase(granularity)) {
+            for (Object[] row : imageRepository.countByMonth()) {
+                buckets.add(new DateBucket(String.format("%04d-%02d", row[0], row[1]), (Long) row[2]));
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported timeline granularity: " + granularity);
         }
+        return buckets;
     }
     
     @Override
-    public void setBasePath(String path) {
-        imageScanService.setBasePath(path);
+    @Transactional(readOnly = true)
+    public Page<ImageSummary> getImagesOfDate(LocalDate date, Pageable pageable) {
+        return imageRepository.findSummariesByCreateTimeRange(date.atStartOfDay(), date.plusDays(1).atStartOfDay(),
+            withDefaultSort(pageable));
     }
     
     @Override
-    @Transactional
-    public void scanAndUpdateImages() {
-        List<ImageInfo> images = imageScanService.scanImages();
-        for (ImageInfo image : images) {
-            try {
-                // 复制原始图片到应用管理的目录
-                String newImagePath = copyImageToManagedDirectory(image.getFilePath());
-                image.setFilePath("/images/" + Paths.get(newImagePath).getFileName());
-                
-                // 生成缩略图
-                String thumbnailPath = generateThumbnail(newImagePath);
-                if (thumbnailPath != null) {
-                    image.setThumbnailPath("/thumbnails/" + Paths.get(thumbnailPath).getFileName());
-                }
-                
-                // 保存或更新图片信息
-                imageRepository.save(image);
-            } catch (Exception e) {
-                log.error("Error processing image: " + image.getFilePath(), e);
+    @Transactional(readOnly = true)
+    public CursorPage<ImageSummary> getImageFeed(LocalDate date, String cursor, int size) {
+        if (size <= 0 || size > FEED_MAX_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + FEED_MAX_SIZE);
+        }
+        LocalDateTime lower = date != null ? date.atStartOfDay() : FEED_MIN_TIME;
+        LocalDateTime time = date != null ? date.plusDays(1).atStartOfDay() : FEED_MAX_TIME;
+        long id = Long.MIN_VALUE;
+        if (cursor != null && !cursor.isEmpty()) {
+            // 游标指向上一页最后一张图片
+            String[] position = decodeCursor(cursor);
+            time = LocalDateTime.parse(position[0]);
+            id = Long.parseLong(position[1]);
+        }
+        
+        // 多取一条用于判断是否还有下一页
+        List<ImageSummary> images = imageRepository.findSummariesBefore(lower, time, id, PageRequest.of(0, size + 1));
+        String nextCursor = null;
+        if (images.size() > size) {
+            images = new ArrayList<>(images.subList(0, size));
+            ImageSummary last = images.get(size - 1);
+            nextCursor = encodeCursor(last.getCreateTime(), last.getId());
+        }
+        return new CursorPage<>(images, nextCursor);
+    }
+    
+    @Override
+    @Transactional(readOnly = true)
+    public long countImages(LocalDate date) {
+        if (date == null) {
+            return imageRepository.count();
+        }
+        return imageRepository.countByCreateTimeRange(date.atStartOfDay(), date.plusDays(1).atStartOfDay());
+    }
+    
+    /**
+     * 游标为 "创建时间,ID" 的 URL 安全 Base64 编码，对调用方不透明
+     */
+    private static String encodeCursor(LocalDateTime createTime, Long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((createTime + "," + id).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String[] decodeCursor(String cursor) {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(",");
+            if (position.length == 2) {
+                LocalDateTime.parse(position[0]);
+                Long.parseLong(position[1]);
+                return position;
             }
+        } catch (RuntimeException e) {
+            // 按无效游标处理
         }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
     }
     
-    private String copyImageToManagedDirectory(String sourcePath) throws IOException {
-        Path source = Paths.get(sourcePath);
-        String fileName = source.getFileName().toString();
-        Path targetPath = Paths.get(IMAGES_DIR, fileName);
-        
-        // 如果目标文件已存在，生成唯一文件名
-        if (Files.exists(targetPath)) {
-            String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
-            String extension = fileName.substring(fileName.lastIndexOf('.'));
-            int counter = 1;
-            
-            do {
-                fileName = baseName + "_" + counter + extension;
-                targetPath = Paths.get(IMAGES_DIR, fileName);
-                counter++;
-            } while (Files.exists(targetPath));
+    /**
+     * 未指定排序时按创建时间倒序，ID作为相同时间的次序
+     */
+    private Pageable withDefaultSort(Pageable pageable) {
+        if (pageable.getSort().isSorted()) {
+            return pageable;
         }
-        
-        // 复制文件
-        Files.copy(source, targetPath, StandardCopyOption.REPLACE_EXISTING);
-        return targetPath.toString();
+        return PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(),
+            Sort.by(Sort.Order.desc("createTime"), Sort.Order.desc("id")));
     }
     
     @Override
-    public Map<String, List<ImageInfo>> getImagesByDate(Pageable pageable) {
-        List<ImageInfo> images = imageRepository.findAll(pageable).getContent();
-        return images.stream()
-            .collect(Collectors.groupingBy(
-                image -> image.getCreateTime().format(DATE_FORMATTER),
-                TreeMap::new,
-                Collectors.toList()
-            ));
+    @Transactional(readOnly = true)
+    public Map<String, List<ImageSummary>> getImagesByTag(Pageable pageable) {
+        List<ImageSummary> images = imageRepository.findAllSummaries(pageable).getContent();
+        return groupSummaries(images, tagRepository.findNamesByImageIds(TagType.TAG, summaryIds(images)));
     }
     
     @Override
-    public Map<String, List<ImageInfo>> getImagesByTag(Pageable pageable) {
-        List<ImageInfo> images = imageRepository.findAll(pageable).getContent();
-        Map<String, List<ImageInfo>> tagMap = new HashMap<>();
-        
-        for (ImageInfo image : images) {
-            for (String tag : image.getTags()) {
-                tagMap.computeIfAbsent(tag, k -> new ArrayList<>()).add(image);
-            }
+    @Transactional(readOnly = true)
+    public Map<String, List<ImageSummary>> getImagesByArtist(Pageable pageable) {
+        List<ImageSummary> images = imageRepository.findAllSummaries(pageable).getContent();
+        return groupSummaries(images, tagRepository.findNamesByImageIds(TagType.ARTIST, summaryIds(images)));
+    }
+    
+    private static List<Long> summaryIds(List<ImageSummary> images) {
+        return images.stream().map(ImageSummary::getId).collect(Collectors.toList());
+    }
+    
+    /**
+     * 按 (图片ID, 标签) 对把摘要分组，同一图片可出现在多个分组中
+     */
+    private static Map<String, List<ImageSummary>> groupSummaries(List<ImageSummary> images, List<Object[]> pairs) {
+        Map<Long, ImageSummary> byId = images.stream()
+            .collect(Collectors.toMap(ImageSummary::getId, image -> image));
+        Map<String, List<ImageSummary>> groups = new TreeMap<>();
+        for (Object[] pair : pairs) {
+            groups.computeIfAbsent((String) pair[1], k -> new ArrayList<>()).add(byId.get((Long) pair[0]));
         }
-        
-        return new TreeMap<>(tagMap);
+        return groups;
     }
     
     @Override
-    public Map<String, List<ImageInfo>> getImagesByArtist(Pageable pageable) {
-        List<ImageInfo> images = imageRepository.findAll(pageable).getContent();
-        Map<String, List<ImageInfo>> artistMap = new HashMap<>();
-        
-        for (ImageInfo image : images) {
-            for (String artist : image.getArtists()) {
-                artistMap.computeIfAbsent(artist, k -> new ArrayList<>()).add(image);
-            }
+    @Transactional(readOnly = true)
+    public List<String> getAllTags() {
+        return tagRepository.findNamesByPopularity(TagType.TAG);
+    }
+    
+    @Override
+    @Transactional(readOnly = true)
+    public List<String> getAllArtists() {
+        return tagRepository.findNamesByPopularity(TagType.ARTIST);
+    }
+    
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<TagCompletion> completeTags(String type, String prefix, int limit) {
+        TagType tagType;
+        try {
+            tagType = TagType.valueOf(type.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported tag type: " + type);
         }
-        
-        return new TreeMap<>(artistMap);
+        return tagCompletionService.complete(tagType, prefix, limit);
     }
     
     @Override
-    public Set<String> getAllTags() {
-        return imageRepository.findAllTags();
+    @Transactional(readOnly = true)
+    public Page<ImageSummary> searchByTags(Set<String> tags, Pageable pageable) {
+        return loadPage(tagIndexService.anyOf(tags), pageable);
     }
     
     @Override
-    public Set<String> getAllArtists() {
-        return imageRepository.findAllArtists();
+    @Transactional(readOnly = true)
+    public Page<ImageSummary> searchImages(String query, Pageable pageable) {
+        return loadPage(tagIndexService.query(query), pageable);
     }
     
     @Override
-    public Page<ImageInfo> searchByTags(Set<String> tags, Pageable pageable) {
-        return imageRepository.findByTagsIn(tags, pageable);
+    @Transactional(readOnly = true)
+    public Page<ImageSummary> searchPrompts(String query, String field, Pageable pageable) {
+        PromptIndexService.Field searchField;
+        try {
+            searchField = PromptIndexService.Field.valueOf(field.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported search field: " + field);
+        }
+        PromptIndexService.Hits hits = promptIndexService.search(query, searchField,
+            pageable.getOffset(), pageable.getPageSize());
+        return loadPage(hits.ids(), pageable, hits.total());
+    }
+    
+    /**
+     * 按索引结果取一页图片，结果按ID倒序
+     */
+    private Page<ImageSummary> loadPage(RoaringBitmap ids, Pageable pageable) {
+        List<Long> pageIds = tagIndexService.page(ids, pageable.getOffset(), pageable.getPageSize());
+        return loadPage(pageIds, pageable, ids.getLongCardinality());
+    }
+    
+    /**
+     * 按给定的ID顺序加载一页图片摘要
+     */
+    private Page<ImageSummary> loadPage(List<Long> pageIds, Pageable pageable, long total) {
+        Map<Long, ImageSummary> images = imageRepository.findSummariesByIdIn(pageIds).stream()
+            .collect(Collectors.toMap(ImageSummary::getId, image -> image));
+        List<ImageSummary> content = pageIds.stream()
+            .map(images::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        return new PageImpl<>(content, pageable, total);
     }
     
     @Override
     public ImageInfo getImageDetail(Long id) {
-        return imageRepository.findById(id)
+        ImageInfo image = imageRepository.findById(id)
             .orElseThrow(() -> new RuntimeException("Image not found"));
+        
+        // 标签和画师从标签字典加载
+        Set<String> tags = new HashSet<>();
+        Set<String> artists = new HashSet<>();
+        for (Tag tag : tagRepository.findByImageId(id)) {
+            (tag.getType() == TagType.ARTIST ? artists : tags).add(tag.getName());
+        }
+        image.setTags(tags);
+        image.setArtists(artists);
+        image.setMetadata(metadataBlobStore.load(image.getMetadataHash()));
+        return image;
     }
     
     @Override
-    public String generateThumbnail(String imagePath) {
-        try {
-            File sourceFile = new File(imagePath);
-            BufferedImage sourceImage = ImageIO.read(sourceFile);
-            
-            // 计算缩略图尺寸
-            int thumbnailHeight = (int) ((double) THUMBNAIL_WIDTH / sourceImage.getWidth() * sourceImage.getHeight());
-            
-            // 创建缩略图
-            BufferedImage thumbnail = new BufferedImage(THUMBNAIL_WIDTH, thumbnailHeight, BufferedImage.TYPE_INT_RGB);
-            Graphics2D g2d = thumbnail.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.drawImage(sourceImage, 0, 0, THUMBNAIL_WIDTH, thumbnailHeight, null);
-            g2d.dispose();
-            
-            // 生成缩略图文件名
-            String thumbnailName = "thumb_" + sourceFile.getName();
-            File thumbnailFile = new File(THUMBNAIL_DIR, thumbnailName);
-            
-            // 保存缩略图
-            ImageIO.write(thumbnail, "JPEG", thumbnailFile);
-            
-            return thumbnailFile.getPath();
-        } catch (Exception e) {
-            log.error("Error generating thumbnail for: " + imagePath, e);
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ImageServingInfo getServingInfo(Long id) {
+        return imageServingCache.get(id);
+    }
+    
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Path getThumbnail(Long id) {
+        ImageServingInfo image = imageServingCache.get(id);
+        Path source = image != null ? imageStoreService.resolve(image.getFilePath()) : null;
+        if (source == null) {
             return null;
         }
+        String thumbnailName = image.getThumbnailPath() != null
+            ? image.getThumbnailPath().substring(image.getThumbnailPath().lastIndexOf('/') + 1)
+            : ThumbnailService.nameFor(baseName(source));
+        return thumbnailService.getThumbnail(source, thumbnailName);
     }
     
     @Override
-    public Long addScanDirectory(String path, String description) {
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Path getThumbnail(String thumbnailName) {
+        Long id = imageRepository.findIdByThumbnailPath(ThumbnailService.URL_PREFIX + thumbnailName);
+        return id != null ? getThumbnail(id) : null;
+    }
+    
+    @Override
+    public String generateThumbnail(String imagePath) {
+        Path source = Paths.get(imagePath);
+        return thumbnailService.generate(source, ThumbnailService.nameFor(baseName(source)));
+    }
+    
+    /**
+     * 不含扩展名的文件名
+     */
+    private static String baseName(Path path) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+    
+    @Override
+    public Long addScanDirectory(String path, String description, StorageMode storageMode) {
         // 检查路径是否已存在
         if (scanDirectoryRepository.existsByPath(path)) {
             return null;
         }
         
-        // 创建新的扫描目录记录
+        // 检查目录是否存在
+        if (!Files.isDirectory(Paths.get(path))) {
+            throw new IllegalArgumentException("Directory does not exist: " + path);
+        }
+        
+        // 创建新的扫描目录记录，图片由扫描任务导入
         ScanDirectory directory = new ScanDirectory(path);
         directory.setDescription(description);
-        directory = scanDirectoryRepository.save(directory);
-        
-        // 立即扫描新添加的目录
-        try {
-            imageScanService.setBasePath(path);
-            List<ImageInfo> newImages = imageScanService.scanImages();
-            for (ImageInfo image : newImages) {
-                // 复制图片到管理目录并保存
-                processAndSaveImage(image);
-            }
-            
-            // 更新目录信息
-            directory.setImageCount(newImages.size());
-            directory.setLastScanTime(LocalDateTime.now());
-            scanDirectoryRepository.save(directory);
-            
-            return directory.getId();
-        } catch (Exception e) {
-            log.error("Failed to scan directory: " + path, e);
-            // 删除目录记录
-            scanDirectoryRepository.delete(directory);
-            return null;
+        if (storageMode != null) {
+            directory.setStorageMode(storageMode);
         }
+        return scanDirectoryRepository.save(directory).getId();
+    }
+    
+    @Override
+    public ScanDirectory setDirectoryWatch(Long directoryId, boolean enabled) {
+        ScanDirectory directory = scanDirectoryRepository.findById(directoryId)
+            .orElseThrow(() -> new IllegalArgumentException("Directory not found"));
+        directory.setWatchEnabled(enabled);
+        return scanDirectoryRepository.save(directory);
     }
     
     @Override
@@ -245,47 +432,212 @@ public class ImageServiceImpl implements ImageService {
         
         // 删除目录记录（不删除实际文件）
         scanDirectoryRepository.deleteById(directoryId);
+        imageStoreService.evictDirectory(directoryId);
         return true;
     }
     
     @Override
-    public int rescanDirectory(Long directoryId) {
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ScanResult rescanDirectory(Long directoryId, ScanProgress progress) {
         Optional<ScanDirectory> directoryOpt = scanDirectoryRepository.findById(directoryId);
         if (directoryOpt.isEmpty()) {
             throw new IllegalArgumentException("Directory not found");
         }
         
         ScanDirectory directory = directoryOpt.get();
-        imageScanService.setBasePath(directory.getPath());
-        List<ImageInfo> scannedImages = imageScanService.scanImages();
-        int updatedCount = 0;
+        Path root = Paths.get(directory.getPath()).toAbsolutePath().normalize();
+        List<ScannedFile> files = imageScanService.listImageFiles(directory.getPath());
+        assignLegacyImages(root, directoryId, files);
+        
+        // 已入库图片的源文件状态，按源路径索引
+        Map<String, ImageSourceState> knownStates = new HashMap<>();
+        for (ImageSourceState state : imageRepository.findSourceStatesByScanDirectoryId(directoryId)) {
+            knownStates.put(state.getSourcePath(), state);
+        }
+        
+        ScanResult result = new ScanResult();
+        Map<String, ImageSourceState> changedStates = new HashMap<>();
+        List<Path> filesToParse = new ArrayList<>();
+        progress.addDiscovered(files.size());
         
-        for (ImageInfo newImage : scannedImages) {
-            // 检查图片是否已存在
-            Optional<ImageInfo> existingImage = imageRepository.findByFilePath(newImage.getFilePath());
-            if (existingImage.isPresent()) {
-                // 更新现有图片的标签等信息
-                ImageInfo image = existingImage.get();
-                image.setTags(newImage.getTags());
-                image.setArtists(newImage.getArtists());
-                image.setPrompt(newImage.getPrompt());
-                image.setNegativePrompt(newImage.getNegativePrompt());
-                image.setMetadata(newImage.getMetadata());
-                imageRepository.save(image);
-                updatedCount++;
+        for (ScannedFile file : files) {
+            String sourcePath = file.getPath().toFile().getAbsolutePath();
+            ImageSourceState state = knownStates.remove(sourcePath);
+            if (state == null) {
+                filesToParse.add(file.getPath());
+            } else if (!isSourceChanged(state, file)) {
+                result.setUnchanged(result.getUnchanged() + 1);
             } else {
-                // 处理新图片
-                processAndSaveImage(newImage);
-                updatedCount++;
+                changedStates.put(sourcePath, state);
+                filesToParse.add(file.getPath());
             }
         }
+        progress.addSkipped(result.getUnchanged());
+        
+        applyChanges(root, directory, filesToParse, changedStates, knownStates.values(), result, progress);
         
         // 更新目录信息
-        directory.setImageCount(scannedImages.size());
+        directory.setImageCount(files.size());
         directory.setLastScanTime(LocalDateTime.now());
         scanDirectoryRepository.save(directory);
         
-        return updatedCount;
+        log.info("Rescanned {}: {} added, {} changed, {} removed, {} unchanged", directory.getPath(),
+            result.getAdded(), result.getChanged(), result.getRemoved(), result.getUnchanged());
+        return result;
+    }
+    
+    /**
+     * 增量扫描之前导入的图片没有源路径，按相对路径、文件名和文件大小找到对应的源文件后归入该目录，
+     * 避免重新扫描时作为新图片重复导入；这些记录没有修改时间和指纹，随后会按内容变化重新解析并覆盖原记录
+     */
+    private void assignLegacyImages(Path root, Long directoryId, List<ScannedFile> files) {
+        List<LegacyImage> legacyImages = imageRepository.findLegacyImages();
+        if (legacyImages.isEmpty()) {
+            return;
+        }
+        Map<String, ScannedFile> filesByRelativePath = new HashMap<>();
+        for (ScannedFile file : files) {
+            filesByRelativePath.put(root.relativize(file.getPath()).toString(), file);
+        }
+        
+        int assigned = 0;
+        for (LegacyImage image : legacyImages) {
+            ScannedFile file = image.getRelativePath() != null ? filesByRelativePath.get(image.getRelativePath()) : null;
+            if (file == null
+                || !file.getPath().getFileName().toString().equals(image.getFileName())
+                || (image.getFileSize() != null && image.getFileSize() != file.getSize())) {
+                continue;
+            }
+            imageRepository.assignSource(image.getId(), directoryId, file.getPath().toFile().getAbsolutePath());
+            // 同一个相对路径只对应一条记录
+            filesByRelativePath.remove(image.getRelativePath());
+            assigned++;
+        }
+        if (assigned > 0) {
+            log.info("Assigned {} legacy images to scan directory {}", assigned, root);
+        }
+    }
+    
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ScanResult updateFiles(Long directoryId, Collection<Path> files) {
+        ScanDirectory directory = scanDirectoryRepository.findById(directoryId)
+            .orElseThrow(() -> new IllegalArgumentException("Directory not found"));
+        Path root = Paths.get(directory.getPath()).toAbsolutePath().normalize();
+        
+        ScanResult result = new ScanResult();
+        Map<String, ImageSourceState> changedStates = new HashMap<>();
+        List<ImageSourceState> removedStates = new ArrayList<>();
+        List<Path> filesToParse = new ArrayList<>();
+        
+        for (Path path : files) {
+            String sourcePath = path.toFile().getAbsolutePath();
+            Optional<ImageSourceState> state = imageRepository.findSourceState(directoryId, sourcePath);
+            
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // 文件已被删除
+                state.ifPresent(removedStates::add);
+                continue;
+            }
+            if (!attrs.isRegularFile()) {
+                continue;
+            }
+            
+            ScannedFile file = new ScannedFile(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+            if (state.isEmpty()) {
+                filesToParse.add(path);
+            } else if (!isSourceChanged(state.get(), file)) {
+                result.setUnchanged(result.getUnchanged() + 1);
+            } else {
+                changedStates.put(sourcePath, state.get());
+                filesToParse.add(path);
+            }
+        }
+        
+        ScanProgress progress = new ScanProgress();
+        progress.addDiscovered(files.size());
+        applyChanges(root, directory, filesToParse, changedStates, removedStates, result, progress);
+        
+        if (result.getAdded() > 0 || result.getRemoved() > 0) {
+            int imageCount = directory.getImageCount() != null ? directory.getImageCount() : 0;
+            directory.setImageCount(Math.max(0, imageCount + result.getAdded() - result.getRemoved()));
+            scanDirectoryRepository.save(directory);
+        }
+        return result;
+    }
+    
+    /**
+     * 导入新增或变化的文件，删除源文件已不存在的图片
+     */
+    private void applyChanges(Path root, ScanDirectory directory, List<Path> filesToParse,
+                              Map<String, ImageSourceState> changedStates, Collection<ImageSourceState> removedStates,
+                              ScanResult result, ScanProgress progress) {
+        // 只解析新增或变化的文件
+        ingestFiles(root, filesToParse, directory.getId(), directory.getStorageMode(), changedStates, result, progress);
+        
+        // 释放变化前的文件和缩略图
+        for (ImageSourceState state : changedStates.values()) {
+            releaseManagedFiles(state.getFilePath(), state.getThumbnailPath());
+        }
+        
+        // 源文件已不存在的图片
+        progress.checkCancelled();
+        List<Long> removedIds = removedStates.stream()
+            .map(ImageSourceState::getId)
+            .collect(Collectors.toList());
+        imageBatchWriter.deleteAllById(removedIds);
+        imageServingCache.invalidate(removedIds);
+        if (!removedIds.isEmpty()) {
+            tagCompletionService.refresh();
+        }
+        tagIndexService.remove(removedIds);
+        promptIndexService.remove(removedIds);
+        for (ImageSourceState state : removedStates) {
+            releaseManagedFiles(state.getFilePath(), state.getThumbnailPath());
+        }
+        result.setRemoved(removedStates.size());
+    }
+    
+    /**
+     * 判断源文件是否变化：大小和修改时间一致视为未变化；
+     * 仅修改时间变化时比较指纹，内容相同则只更新记录的修改时间
+     */
+    private boolean isSourceChanged(ImageSourceState state, ScannedFile file) {
+        if (state.getFileSize() == null || state.getFileSize() != file.getSize()) {
+            return true;
+        }
+        if (state.getSourceLastModified() != null && state.getSourceLastModified() == file.getLastModified()) {
+            return false;
+        }
+        try {
+            if (state.getFingerprint() != null && state.getFingerprint().equals(fileFingerprint.compute(file.getPath()))) {
+                imageRepository.updateSourceLastModified(state.getId(), file.getLastModified());
+                return false;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to fingerprint file: {}", file.getPath());
+        }
+        return true;
+    }
+    
+    /**
+     * 管理目录中的文件和缩略图按内容共享，只有不再被任何记录引用时才删除
+     */
+    private void releaseManagedFiles(String filePath, String thumbnailPath) {
+        try {
+            // 计数在存入同一内容的锁内检查，正在导入的相同内容的图片不会指向已删除的文件
+            if (filePath != null) {
+                imageStoreService.deleteIfUnreferenced(filePath, () -> imageRepository.countByFilePath(filePath) > 0);
+            }
+            if (thumbnailPath != null && imageRepository.countByThumbnailPath(thumbnailPath) == 0) {
+                thumbnailService.delete(thumbnailPath);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete managed files: {}", filePath, e);
+        }
     }
     
     @Override
@@ -294,24 +646,140 @@ public class ImageServiceImpl implements ImageService {
     }
     
     /**
-     * 处理并保存图片
+     * 分批解析、处理并保存图片文件，每批在独立事务中批量写入，内存占用与批大小相关而非文件总数
+     * @param changedStates 内容变化的文件，按源路径索引，沿用原记录ID覆盖保存
+     */
+    private void ingestFiles(Path root, List<Path> files, Long directoryId, StorageMode storageMode,
+                             Map<String, ImageSourceState> changedStates, ScanResult result, ScanProgress progress) {
+        for (int from = 0; from < files.size(); from += commitSize) {
+            progress.checkCancelled();
+            List<ImageInfo> parsed = imageScanService.scanImages(root,
+                files.subList(from, Math.min(from + commitSize, files.size())), progress);
+            
+            List<ImageInfo> batch = new ArrayList<>();
+            Map<String, Path> thumbnailSources = new LinkedHashMap<>();
+            // 本批存入管理目录的文件，记录提交前不会被并发的删除清理
+            List<String> storedPaths = new ArrayList<>();
+            List<ImageInfo> saved;
+            try {
+                for (ImageInfo image : parsed) {
+                    image.setScanDirectoryId(directoryId);
+                    ImageSourceState state = changedStates.get(image.getSourcePath());
+                    if (state != null) {
+                        image.setId(state.getId());
+                    }
+                    if (prepareImage(image, storageMode, thumbnailSources, storedPaths)) {
+                        batch.add(image);
+                    } else {
+                        progress.incrementFailed();
+                    }
+                }
+                
+                // 缩略图在独立线程池中并行生成，生成失败的图片不设置缩略图；按需生成模式下留到首次访问时生成
+                progress.checkCancelled();
+                Map<String, String> thumbnails = thumbnailService.isLazy()
+                    ? Collections.emptyMap() : thumbnailService.generateAll(thumbnailSources);
+                for (ImageInfo image : batch) {
+                    if (image.getThumbnailPath() != null) {
+                        image.setThumbnailPath(thumbnailService.isLazy()
+                            ? ThumbnailService.URL_PREFIX + image.getThumbnailPath()
+                            : thumbnails.get(image.getThumbnailPath()));
+                    }
+                }
+                
+                saved = saveBatch(batch);
+            } finally {
+                imageStoreService.completeStore(storedPaths);
+            }
+            for (int i = saved.size(); i < batch.size(); i++) {
+                progress.incrementFailed();
+            }
+            if (!saved.isEmpty()) {
+                tagIndexService.index(saved, saved.stream()
+                    .filter(image -> changedStates.containsKey(image.getSourcePath()))
+                    .map(ImageInfo::getId)
+                    .collect(Collectors.toList()));
+                promptIndexService.index(saved);
+                imageServingCache.invalidate(saved.stream().map(ImageInfo::getId).collect(Collectors.toList()));
+                tagCompletionService.refresh();
+            }
+            
+            for (ImageInfo image : saved) {
+                if (changedStates.containsKey(image.getSourcePath())) {
+                    result.setChanged(result.getChanged() + 1);
+                } else {
+                    result.setAdded(result.getAdded() + 1);
+                }
+                progress.incrementProcessed();
+            }
+        }
+    }
+    
+    /**
+     * 批量保存图片；整批写入失败时拆成两半分别重试，直到定位到无法保存的单张图片，其余图片照常保存
+     * @return 保存成功的图片
+     */
+    private List<ImageInfo> saveBatch(List<ImageInfo> batch) {
+        if (batch.isEmpty()) {
+            return batch;
+        }
+        // 新增的图片在失败的事务中已被分配ID，重试前恢复
+        Long[] ids = batch.stream().map(ImageInfo::getId).toArray(Long[]::new);
+        try {
+            imageBatchWriter.saveAll(batch);
+            return batch;
+        } catch (Exception e) {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).setId(ids[i]);
+            }
+            if (batch.size() == 1) {
+                log.error("Failed to save image: " + batch.get(0).getSourcePath(), e);
+                return Collections.emptyList();
+            }
+            log.warn("Failed to save batch of {} images, retrying in halves: {}", batch.size(), e.getMessage());
+        }
+        int middle = batch.size() / 2;
+        List<ImageInfo> saved = new ArrayList<>(saveBatch(batch.subList(0, middle)));
+        saved.addAll(saveBatch(batch.subList(middle, batch.size())));
+        return saved;
+    }
+    
+    /**
+     * 将图片存入管理目录，并登记需要生成的缩略图
+     * @param thumbnailSources 缩略图文件名到源图片的映射，由调用方统一生成
+     * @param storedPaths 存入管理目录的文件访问路径，记录提交后由调用方结束存入
+     * @return 处理成功返回true
      */
-    private void processAndSaveImage(ImageInfo image) {
+    private boolean prepareImage(ImageInfo image, StorageMode storageMode, Map<String, Path> thumbnailSources,
+                                 List<String> storedPaths) {
         try {
-            // 复制原始图片到应用管理的目录
-            String newImagePath = copyImageToManagedDirectory(image.getFilePath());
-            image.setFilePath("/images/" + Paths.get(newImagePath).getFileName());
+            Path source = Paths.get(image.getFilePath());
+            String thumbnailName;
             
-            // 生成缩略图
-            String thumbnailPath = generateThumbnail(newImagePath);
-            if (thumbnailPath != null) {
-                image.setThumbnailPath("/thumbnails/" + Paths.get(thumbnailPath).getFileName());
+            if (storageMode == StorageMode.REFERENCE) {
+                // 引用模式：不复制文件，直接指向扫描目录中的原始文件
+                image.setFilePath(imageStoreService.reference(image.getScanDirectoryId(), image.getRelativePath()));
+                thumbnailName = ThumbnailService.nameFor(
+                    imageStoreService.referenceKey(image.getSourcePath(), image.getFingerprint()));
+            } else {
+                // 按内容哈希存入应用管理的目录，相同内容只保存一份
+                String contentHash = imageStoreService.hash(source);
+                String storedPath = imageStoreService.store(source, contentHash,
+                    storageMode != null ? storageMode : StorageMode.COPY);
+                storedPaths.add(storedPath);
+                image.setContentHash(contentHash);
+                image.setFilePath(storedPath);
+                source = imageStoreService.resolve(storedPath);
+                thumbnailName = ThumbnailService.nameFor(contentHash);
             }
             
-            // 保存图片信息
-            imageRepository.save(image);
+            // 暂存缩略图文件名，生成完成后替换为访问路径
+            thumbnailSources.putIfAbsent(thumbnailName, source);
+            image.setThumbnailPath(thumbnailName);
+            return true;
         } catch (Exception e) {
-            log.error("Failed to process and save image: " + image.getFilePath(), e);
+            log.error("Failed to process image: " + image.getFilePath(), e);
+            return false;
         }
     }
-} 
\ No newline at end of file
+}
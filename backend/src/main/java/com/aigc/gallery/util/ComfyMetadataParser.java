@@ -0,0 +1,316 @@
+package com.aigc.gallery.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ComfyUI 元数据的流式解析
+ * 一次遍历 JSON，只保留节点的 id、type、inputs 和第一个 widgets_values，其余内容直接跳过，不构建完整的树
+ *
+ * 支持两种格式：
+ * <pre>
+ *   workflow: {"nodes": [{"id": 3, "type": "KSampler", "inputs": {...}, "widgets_values": [...]}, ...], ...}
+ *   prompt:   {"3": {"class_type": "CLIPTextEncode", "inputs": {"text": "...", "clip": ["4", 1]}}, ...}
+ * </pre>
+ * 顶层有 nodes 数组时按 workflow 处理，否则顶层节点中出现 class_type 时按 prompt 处理
+ */
+@Slf4j
+@Component
+public class ComfyMetadataParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String SAMPLER_TYPE = "KSampler";
+    private static final String TEXT_ENCODE_TYPE = "CLIPTextEncode";
+
+    /**
+     * workflow 中的节点
+     * @param links inputs 中各个连接的来源节点ID（按出现顺序）
+     * @param text 第一个 widgets_values，CLIPTextEncode 节点的提示词；没有 widgets_values 或为空数组时为 null
+     */
+    private record Node(String type, String positive, String negative, List<String> links, String text) {
+    }
+
+    /**
+     * 解析过程中的状态
+     */
+    private static class State {
+        final List<Node> nodes = new ArrayList<>();
+        final Map<String, Node> nodeMap = new HashMap<>();
+        boolean workflow;
+        boolean prompt;
+        String positivePrompt = "";
+        String negativePrompt = "";
+    }
+
+    /**
+     * 提取提示词
+     * @param json 元数据中的 JSON 部分
+     * @return [正面提示词, 负面提示词]，不是 ComfyUI 格式时返回 null
+     */
+    public String[] parse(String json) {
+        State state = new State();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("nodes".equals(field) && token == JsonToken.START_ARRAY) {
+                    state.workflow = true;
+                    readWorkflowNodes(parser, state);
+                } else if (token == JsonToken.START_OBJECT) {
+                    readPromptNode(parser, state);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Failed to parse ComfyUI metadata: {}", e.getMessage());
+            // 已确认是 ComfyUI 格式但内容损坏时不再尝试其他格式
+            return state.workflow || state.prompt ? new String[]{"", ""} : null;
+        }
+
+        if (state.workflow) {
+            return extractFromWorkflow(state);
+        }
+        if (state.prompt) {
+            return new String[]{state.positivePrompt, state.negativePrompt};
+        }
+        return null;
+    }
+
+    /**
+     * 从所有 KSampler 节点的 positive / negative 连接追踪到 CLIPTextEncode 节点
+     */
+    private String[] extractFromWorkflow(State state) {
+        List<String> positivePrompts = new ArrayList<>();
+        List<String> negativePrompts = new ArrayList<>();
+
+        try {
+            for (Node node : state.nodes) {
+                if (SAMPLER_TYPE.equals(node.type())) {
+                    addPrompt(positivePrompts, node.positive(), state.nodeMap);
+                    addPrompt(negativePrompts, node.negative(), state.nodeMap);
+                }
+            }
+        } catch (IllegalStateException e) {
+            // 与原来的树模型解析一致，连接到缺少提示词的 CLIPTextEncode 节点时整个 workflow 不提取提示词
+            log.debug("Failed to parse ComfyUI workflow: {}", e.getMessage());
+            return new String[]{"", ""};
+        }
+
+        return new String[]{
+            String.join(", ", positivePrompts),
+            String.join(", ", negativePrompts)
+        };
+    }
+
+    private void addPrompt(List<String> prompts, String nodeId, Map<String, Node> nodeMap) {
+        if (nodeId != null) {
+            String prompt = extractPromptFromConditioningChain(nodeId, nodeMap, new HashSet<>());
+            if (prompt != null && !prompt.isEmpty()) {
+                prompts.add(prompt);
+            }
+        }
+    }
+
+    /**
+     * 从 conditioning 链中提取提示词，跳过已访问的节点以免循环连接导致无限递归
+     */
+    private String extractPromptFromConditioningChain(String nodeId, Map<String, Node> nodeMap, Set<String> visited) {
+        Node node = nodeMap.get(nodeId);
+        if (node == null || !visited.add(nodeId)) {
+            return null;
+        }
+
+        // 如果是 CLIPTextEncode 节点，直接获取提示词
+        if (TEXT_ENCODE_TYPE.equals(node.type())) {
+            if (node.text() == null) {
+                throw new IllegalStateException("CLIPTextEncode node " + nodeId + " has no widgets_values");
+            }
+            return node.text();
+        }
+
+        // 如果是其他类型的节点，尝试追踪其输入
+        for (String inputNodeId : node.links()) {
+            String prompt = extractPromptFromConditioningChain(inputNodeId, nodeMap, visited);
+            if (prompt != null && !prompt.isEmpty()) {
+                return prompt;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 读取 workflow 的 nodes 数组，当前位置为 START_ARRAY
+     */
+    private void readWorkflowNodes(JsonParser parser, State state) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+
+            String id = "";
+            String type = "";
+            String positive = null;
+            String negative = null;
+            List<String> links = new ArrayList<>();
+            String text = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                token = parser.nextToken();
+                switch (field) {
+                    case "id" -> id = scalarText(parser, token);
+                    case "type" -> type = scalarText(parser, token);
+                    case "inputs" -> {
+                        if (token == JsonToken.START_OBJECT) {
+                            // 命名的输入：{"positive": ["6", 0], ...}
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String name = parser.currentName();
+                                String link = linkSource(parser, parser.nextToken());
+                                if (link != null) {
+                                    links.add(link);
+                                    if ("positive".equals(name)) {
+                                        positive = link;
+                                    } else if ("negative".equals(name)) {
+                                        negative = link;
+                                    }
+                                }
+                            }
+                        } else if (token == JsonToken.START_ARRAY) {
+                            JsonToken element;
+                            while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+                                String link = linkSource(parser, element);
+                                if (link != null) {
+                                    links.add(link);
+                                }
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    case "widgets_values" -> {
+                        if (token == JsonToken.START_ARRAY) {
+                            JsonToken first = parser.nextToken();
+                            if (first != JsonToken.END_ARRAY) {
+                                text = scalarText(parser, first);
+                                skipRemaining(parser);
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+
+            Node node = new Node(type, positive, negative, links, text);
+            state.nodes.add(node);
+            if (!id.isEmpty()) {
+                state.nodeMap.put(id, node);
+            }
+        }
+    }
+
+    /**
+     * 读取 prompt 格式的一个顶层节点，当前位置为 START_OBJECT
+     * 这种格式中无法直接判断正负面提示词，第一个遇到的 CLIPTextEncode 作为正面提示词，之后的作为负面提示词
+     */
+    private void readPromptNode(JsonParser parser, State state) throws IOException {
+        String classType = "";
+        String text = "";
+        boolean hasClip = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if ("class_type".equals(field)) {
+                state.prompt = true;
+                classType = scalarText(parser, token);
+            } else if ("inputs".equals(field) && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if ("text".equals(name)) {
+                        text = scalarText(parser, value);
+                    } else if ("clip".equals(name) && value == JsonToken.START_ARRAY) {
+                        hasClip = parser.nextToken() != JsonToken.END_ARRAY;
+                        if (hasClip) {
+                            parser.skipChildren();
+                            skipRemaining(parser);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (TEXT_ENCODE_TYPE.equals(classType) && hasClip) {
+            if (state.positivePrompt.isEmpty()) {
+                state.positivePrompt = text;
+            } else {
+                state.negativePrompt = text;
+            }
+        }
+    }
+
+    /**
+     * 连接的来源节点ID，即非空数组的第一个元素；不是连接时返回 null
+     */
+    private static String linkSource(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        JsonToken first = parser.nextToken();
+        if (first == JsonToken.END_ARRAY) {
+            return null;
+        }
+        String source = first == JsonToken.VALUE_NULL ? "null" : scalarText(parser, first);
+        skipRemaining(parser);
+        return source;
+    }
+
+    /**
+     * 标量值的文本，对象、数组和 null 返回空字符串（对象和数组会被跳过）
+     * 小数按 double 格式化（如 1.50 为 1.5），与 JsonNode.asText 一致
+     */
+    private static String scalarText(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return Double.toString(parser.getDoubleValue());
+        }
+        if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return "";
+    }
+
+    /**
+     * 跳过当前数组中剩余的元素，结束时位于 END_ARRAY
+     */
+    private static void skipRemaining(JsonParser parser) throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+        }
+    }
+}
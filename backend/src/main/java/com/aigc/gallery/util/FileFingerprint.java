@@ -0,0 +1,49 @@
+package com.aigc.gallery.util;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+@Component
+public class FileFingerprint {
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    
+    /**
+     * 计算文件的快速指纹：文件大小 + 文件头尾各16KB的CRC32C
+     * 只读取少量字节，用于判断修改时间变化的文件内容是否真的改变
+     */
+    public String compute(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+            
+            readFully(channel, buffer, 0);
+            crc.update(buffer);
+            
+            if (size > SAMPLE_SIZE) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(SAMPLE_SIZE, size - SAMPLE_SIZE));
+                crc.update(buffer);
+            }
+            
+            return Long.toHexString(size) + "-" + Long.toHexString(crc.getValue());
+        }
+    }
+    
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,270 @@
+package com.aigc.gallery.util;
+
+import com.drew.imaging.png.PngChunkType;
+import com.drew.lang.KeyValuePair;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * PNG 文本块快速读取
+ * 只读取文件签名和 IDAT 之前的数据块，解析其中的 tEXt/zTXt/iTXt，不读取图像数据
+ */
+@Slf4j
+@Component
+public class PngTextReader {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int WINDOW_SIZE = 64 * 1024;
+    private static final int MAX_TEXT_CHUNK_SIZE = 64 * 1024 * 1024;
+    // 压缩文本解压后的上限，防止很小的文件解压出巨大的数据
+    private static final int MAX_INFLATED_SIZE = 8 * 1024 * 1024;
+    
+    private static final int IHDR = chunkType("IHDR");
+    private static final int IDAT = chunkType("IDAT");
+    private static final int IEND = chunkType("IEND");
+    private static final int TEXT = chunkType("tEXt");
+    private static final int ZTXT = chunkType("zTXt");
+    private static final int ITXT = chunkType("iTXt");
+    
+    // 每个线程复用的读取窗口，AI 生成图片的文本块通常都在第一个窗口内
+    private static final ThreadLocal<ByteBuffer> WINDOW = ThreadLocal.withInitial(() -> ByteBuffer.allocate(WINDOW_SIZE));
+    
+    /**
+     * PNG 文本块
+     */
+    public record TextChunk(String keyword, String text) {
+        
+        /**
+         * 与 metadata-extractor 中 PngDirectory 文本数据的字符串形式一致，保证后续提取结果相同
+         */
+        @Override
+        public String toString() {
+            return "[" + keyword + ": " + text + "]";
+        }
+        
+        /**
+         * 由 metadata-extractor 解析出的文本块创建；metadata-extractor 把 iTXt 也按 Latin-1 解码，这里按 PNG 规范使用 UTF-8
+         */
+        public static TextChunk of(PngChunkType chunkType, KeyValuePair pair) {
+            String text = PngChunkType.iTXt.equals(chunkType)
+                ? new String(pair.getValue().getBytes(), StandardCharsets.UTF_8)
+                : pair.getValue().toString();
+            return new TextChunk(pair.getKey(), text);
+        }
+    }
+    
+    /**
+     * IHDR 中的图片尺寸和 IDAT 之前的文本块
+     */
+    public record PngText(int width, int height, List<TextChunk> chunks) {
+    }
+    
+    /**
+     * 读取图片尺寸和 IDAT 之前的所有文本块，IDAT 之后的文本块不读取
+     * @return 不是 PNG 或结构异常时返回null，由调用方回退到完整解析；没有文本块时返回空列表
+     */
+    public PngText read(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Window window = new Window(channel, WINDOW.get());
+            
+            if (!window.ensure(0, PNG_SIGNATURE.length)) {
+                return null;
+            }
+            for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+                if (window.byteAt(i) != PNG_SIGNATURE[i]) {
+                    return null;
+                }
+            }
+            
+            List<TextChunk> chunks = new ArrayList<>();
+            boolean header = false;
+            int width = 0;
+            int height = 0;
+            long position = PNG_SIGNATURE.length;
+            while (window.ensure(position, 8)) {
+                long length = window.intAt(position) & 0xFFFFFFFFL;
+                int type = window.intAt(position + 4);
+                if (type == IDAT || type == IEND) {
+                    return header ? new PngText(width, height, chunks) : null;
+                }
+                
+                long dataStart = position + 8;
+                if (type == IHDR) {
+                    if (!window.ensure(dataStart, 8)) {
+                        return null;
+                    }
+                    header = true;
+                    width = window.intAt(dataStart);
+                    height = window.intAt(dataStart + 4);
+                } else if (type == TEXT || type == ZTXT || type == ITXT) {
+                    if (length > MAX_TEXT_CHUNK_SIZE) {
+                        return null;
+                    }
+                    byte[] data = window.bytes(dataStart, (int) length);
+                    if (data == null) {
+                        return null;
+                    }
+                    TextChunk chunk = decode(type, data);
+                    if (chunk != null) {
+                        chunks.add(chunk);
+                    }
+                }
+                
+                // 跳过数据和CRC
+                position = dataStart + length + 4;
+            }
+            return null;
+        } catch (Exception e) {
+            log.debug("Fast PNG text read failed for {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+    
+    private TextChunk decode(int type, byte[] data) throws DataFormatException {
+        int keywordEnd = indexOf(data, 0);
+        if (keywordEnd <= 0) {
+            return null;
+        }
+        String keyword = new String(data, 0, keywordEnd, StandardCharsets.ISO_8859_1);
+        
+        if (type == TEXT) {
+            return new TextChunk(keyword, new String(data, keywordEnd + 1, data.length - keywordEnd - 1,
+                StandardCharsets.ISO_8859_1));
+        }
+        
+        if (type == ZTXT) {
+            // 关键字\0 压缩方法(1字节) 压缩文本
+            byte[] text = inflate(data, keywordEnd + 2, data.length - keywordEnd - 2);
+            return text == null ? null : new TextChunk(keyword, new String(text, StandardCharsets.ISO_8859_1));
+        }
+        
+        // iTXt: 关键字\0 压缩标志(1) 压缩方法(1) 语言标签\0 翻译关键字\0 文本(UTF-8)
+        int compressionFlag = data[keywordEnd + 1];
+        int languageEnd = indexOf(data, keywordEnd + 3);
+        int translatedEnd = languageEnd < 0 ? -1 : indexOf(data, languageEnd + 1);
+        if (translatedEnd < 0) {
+            return null;
+        }
+        int textStart = translatedEnd + 1;
+        byte[] text = compressionFlag == 1
+            ? inflate(data, textStart, data.length - textStart)
+            : Arrays.copyOfRange(data, textStart, data.length);
+        return text == null ? null : new TextChunk(keyword, new String(text, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * 解压文本
+     * @return 解压后超过上限时返回null，按没有该文本块处理
+     */
+    private byte[] inflate(byte[] data, int offset, int length) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(length * 4L, WINDOW_SIZE));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                if (out.size() + count > MAX_INFLATED_SIZE) {
+                    log.debug("Compressed PNG text exceeds {} bytes, skipped", MAX_INFLATED_SIZE);
+                    return null;
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    private static int indexOf(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int chunkType(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+    
+    /**
+     * 文件上的滑动读取窗口，只在需要的数据不在窗口内时才重新读取
+     */
+    private static class Window {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long start;
+        
+        Window(FileChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.buffer.clear().flip();
+        }
+        
+        /**
+         * 确保 [position, position + length) 在窗口内
+         * @return 文件剩余数据不足时返回false
+         */
+        boolean ensure(long position, int length) throws IOException {
+            if (position >= start && position + length <= start + buffer.limit()) {
+                return true;
+            }
+            buffer.clear();
+            start = position;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.limit() >= length;
+        }
+        
+        byte byteAt(long position) {
+            return buffer.get((int) (position - start));
+        }
+        
+        int intAt(long position) {
+            return buffer.getInt((int) (position - start));
+        }
+        
+        /**
+         * 读取一段数据，超过窗口大小时直接从文件读取
+         */
+        byte[] bytes(long position, int length) throws IOException {
+            byte[] data = new byte[length];
+            if (length <= buffer.capacity()) {
+                if (!ensure(position, length)) {
+                    return null;
+                }
+                buffer.get((int) (position - start), data);
+                return data;
+            }
+            ByteBuffer target = ByteBuffer.wrap(data);
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    return null;
+                }
+            }
+            return data;
+        }
+    }
+}
@@ -2,88 +2,162 @@ package com.aigc.gallery.util;
 
 import org.springframework.stereotype.Component;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class TagProcessor {
     private static final String ARTIST_PREFIX = "artist:";
-    private static final Pattern WEIGHT_PATTERN = Pattern.compile("^[\\[{(].*[\\]})]$");
-    private static final Pattern BALANCED_PARENTHESES = Pattern.compile("^\\(.*\\)$");
-    
+    // 提示词中的分段关键字，不是标签
+    private static final String BREAK_KEYWORD = "BREAK";
+    // 规范化字典的容量上限，超出后新标签不再驻留
+    private static final int MAX_CANONICAL_SIZE = 1_000_000;
+
+    // 标签的规范实例，所有图片中相同的标签共享同一个字符串
+    private final Map<String, String> canonical = new ConcurrentHashMap<>();
+
     /**
      * 处理原始提示词，提取标签
+     * 单次扫描：逗号和换行分隔标签，括号为权重语法直接忽略（可任意嵌套），
+     * 括号内或标签末尾的 :1.2 等权重数值被移除，反斜杠转义的字符按原样保留，
+     * 尖括号内容（如 LoRA）和 BREAK 关键字不作为标签，连续空白合并为一个空格
      */
     public Set<String> extractTags(String prompt) {
-        if (prompt == null || prompt.trim().isEmpty()) {
+        if (prompt == null || prompt.isBlank()) {
             return Collections.emptySet();
         }
-        
+
         Set<String> tags = new HashSet<>();
-        String[] rawTags = prompt.split(",");
-        
-        for (String tag : rawTags) {
-            String cleanTag = cleanTag(tag.trim());
-            if (!cleanTag.isEmpty()) {
-                tags.add(cleanTag);
+        StringBuilder tag = new StringBuilder(32);
+        int length = prompt.length();
+        int i = 0;
+        while (i < length) {
+            char c = prompt.charAt(i);
+            switch (c) {
+                case '\\' -> {
+                    // 转义的括号等字符属于标签本身，例如 kaguya \(kancolle\)
+                    if (i + 1 < length) {
+                        appendChar(tag, prompt.charAt(++i));
+                    }
+                }
+                case ',', '\n', '\r' -> addTag(tag, tags);
+                case '(', ')', '[', ']', '{', '}' -> {
+                    // 权重括号
+                }
+                case '<' -> {
+                    int end = prompt.indexOf('>', i + 1);
+                    if (end < 0) {
+                        appendChar(tag, c);
+                    } else {
+                        i = end;
+                    }
+                }
+                case ':' -> {
+                    int end = weightEnd(prompt, i + 1);
+                    if (end < 0) {
+                        appendChar(tag, c);
+                    } else {
+                        i = end - 1;
+                    }
+                }
+                default -> appendChar(tag, c);
             }
+            i++;
         }
-        
+        addTag(tag, tags);
         return tags;
     }
-    
+
     /**
      * 提取画师标签
      */
     public Set<String> extractArtists(Set<String> tags) {
         Set<String> artists = new HashSet<>();
         Iterator<String> iterator = tags.iterator();
-        
+
         while (iterator.hasNext()) {
             String tag = iterator.next();
-            if (tag.toLowerCase().startsWith(ARTIST_PREFIX)) {
+            if (tag.regionMatches(true, 0, ARTIST_PREFIX, 0, ARTIST_PREFIX.length())) {
                 String artist = tag.substring(ARTIST_PREFIX.length()).trim();
                 if (!artist.isEmpty()) {
-                    artists.add(artist);
+                    artists.add(intern(artist));
                     iterator.remove(); // 从普通标签中移除画师标签
                 }
             }
         }
-        
+
         return artists;
     }
-    
+
     /**
-     * 清理标签中的权重标记
+     * 返回标签的规范实例
      */
-    private String cleanTag(String tag) {
-        if (tag == null || tag.trim().isEmpty()) {
-            return "";
+    public String intern(String tag) {
+        String existing = canonical.get(tag);
+        if (existing != null) {
+            return existing;
         }
-        
-        tag = tag.trim();
-        
-        // 处理方括号和花括号
-        if (tag.startsWith("[") && tag.endsWith("]") ||
-            tag.startsWith("{") && tag.endsWith("}")) {
-            tag = tag.substring(1, tag.length() - 1);
+        if (canonical.size() >= MAX_CANONICAL_SIZE) {
+            return tag;
         }
-        
-        // 处理圆括号，只有在开头和结尾都有时才移除
-        if (BALANCED_PARENTHESES.matcher(tag).matches()) {
-            tag = tag.substring(1, tag.length() - 1);
+        existing = canonical.putIfAbsent(tag, tag);
+        return existing != null ? existing : tag;
+    }
+
+    /**
+     * 追加字符，空白合并为一个空格且不出现在标签开头
+     */
+    private static void appendChar(StringBuilder tag, char c) {
+        if (Character.isWhitespace(c)) {
+            if (tag.length() > 0 && tag.charAt(tag.length() - 1) != ' ') {
+                tag.append(' ');
+            }
+        } else {
+            tag.append(c);
+        }
+    }
+
+    /**
+     * 结束当前标签，去掉末尾空格后加入结果并清空缓冲区
+     */
+    private void addTag(StringBuilder tag, Set<String> tags) {
+        int length = tag.length();
+        if (length > 0 && tag.charAt(length - 1) == ' ') {
+            length--;
+        }
+        if (length > 0 && !(length == BREAK_KEYWORD.length() && BREAK_KEYWORD.contentEquals(tag.subSequence(0, length)))) {
+            tags.add(intern(tag.substring(0, length)));
         }
-        
-        // 移除权重数字
-        tag = tag.replaceAll(":\\d+(\\.\\d+)?", "");
-        
-        return tag.trim();
+        tag.setLength(0);
     }
-    
+
     /**
-     * 判断是否为权重标记
+     * 判断冒号后是否为权重数值（如 1.2、-0.5、.8），且其后是括号、分隔符、空白或结尾
+     * @param from 冒号后的位置
+     * @return 权重数值之后的位置，不是权重时返回 -1
      */
-    private boolean isWeightTag(String tag) {
-        return WEIGHT_PATTERN.matcher(tag).matches();
+    private static int weightEnd(String prompt, int from) {
+        int i = from;
+        int length = prompt.length();
+        while (i < length && prompt.charAt(i) == ' ') {
+            i++;
+        }
+        if (i < length && (prompt.charAt(i) == '-' || prompt.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < length && (Character.isDigit(prompt.charAt(i)) || prompt.charAt(i) == '.')) {
+            if (prompt.charAt(i) != '.') {
+                digits++;
+            }
+            i++;
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        if (i == length) {
+            return i;
+        }
+        char next = prompt.charAt(i);
+        return ")]},\n\r".indexOf(next) >= 0 || Character.isWhitespace(next) ? i : -1;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package com.aigc.gallery.util.format;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stable Diffusion WebUI（A1111）及兼容工具的 parameters 文本块：
+ * <pre>
+ *   正面提示词（可多行）
+ *   Negative prompt: 负面提示词（可多行）
+ *   Steps: 20, Sampler: Euler a, CFG scale: 7, Seed: 123, ...
+ * </pre>
+ */
+@Component
+@Order(1)
+public class A1111Format implements PromptFormat {
+    private static final String KEYWORD = "parameters";
+    private static final String NEGATIVE_MARKER = "Negative prompt:";
+    private static final String NEGATIVE_LINE = "\n" + NEGATIVE_MARKER;
+    private static final String PARAMETERS_MARKER = "Steps: ";
+    private static final String PARAMETERS_LINE = "\n" + PARAMETERS_MARKER;
+    
+    @Override
+    public String getName() {
+        return "A1111";
+    }
+    
+    @Override
+    public boolean accepts(String keyword, String text) {
+        // 部分工具在 parameters 中写入 JSON，交给其他格式处理
+        return KEYWORD.equals(keyword) && !PromptFormat.startsWithObject(text);
+    }
+    
+    @Override
+    public String[] extract(String keyword, String text) {
+        // 生成参数在最后一行，提示词中也可能出现 Steps: 字样，从后向前查找
+        int end = text.startsWith(PARAMETERS_MARKER) ? 0 : text.lastIndexOf(PARAMETERS_LINE);
+        if (end < 0) {
+            end = text.length();
+        }
+        
+        int negativeStart;
+        if (text.startsWith(NEGATIVE_MARKER)) {
+            negativeStart = 0;
+        } else {
+            int line = text.indexOf(NEGATIVE_LINE);
+            negativeStart = line >= 0 && line < end ? line + 1 : -1;
+        }
+        
+        if (negativeStart < 0) {
+            return PromptFormat.result(text.substring(0, end).trim(), "");
+        }
+        return PromptFormat.result(text.substring(0, negativeStart).trim(),
+            text.substring(negativeStart + NEGATIVE_MARKER.length(), end).trim());
+    }
+}
@@ -0,0 +1,34 @@
+package com.aigc.gallery.util.format;
+
+import com.aigc.gallery.util.ComfyMetadataParser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * ComfyUI 的 prompt 文本块（API 格式，节点ID到 class_type / inputs 的映射）
+ */
+@Component
+@Order(3)
+public class ComfyPromptFormat implements PromptFormat {
+    private static final String KEYWORD = "prompt";
+    
+    @Autowired
+    private ComfyMetadataParser comfyMetadataParser;
+    
+    @Override
+    public String getName() {
+        return "ComfyUI prompt";
+    }
+    
+    @Override
+    public boolean accepts(String keyword, String text) {
+        return KEYWORD.equals(keyword) && PromptFormat.startsWithObject(text);
+    }
+    
+    @Override
+    public String[] extract(String keyword, String text) {
+        String[] prompts = comfyMetadataParser.parse(text);
+        return prompts != null ? PromptFormat.result(prompts[0], prompts[1]) : null;
+    }
+}
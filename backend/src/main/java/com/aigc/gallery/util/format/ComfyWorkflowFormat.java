@@ -0,0 +1,34 @@
+package com.aigc.gallery.util.format;
+
+import com.aigc.gallery.util.ComfyMetadataParser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * ComfyUI 的 workflow 文本块（编辑器保存的 nodes 数组），优先级低于 prompt 文本块
+ */
+@Component
+@Order(4)
+public class ComfyWorkflowFormat implements PromptFormat {
+    private static final String KEYWORD = "workflow";
+    
+    @Autowired
+    private ComfyMetadataParser comfyMetadataParser;
+    
+    @Override
+    public String getName() {
+        return "ComfyUI workflow";
+    }
+    
+    @Override
+    public boolean accepts(String keyword, String text) {
+        return KEYWORD.equals(keyword) && PromptFormat.startsWithObject(text);
+    }
+    
+    @Override
+    public String[] extract(String keyword, String text) {
+        String[] prompts = comfyMetadataParser.parse(text);
+        return prompts != null ? PromptFormat.result(prompts[0], prompts[1]) : null;
+    }
+}
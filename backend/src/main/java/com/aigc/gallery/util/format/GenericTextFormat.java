@@ -0,0 +1,188 @@
+package com.aigc.gallery.util.format;
+
+import com.aigc.gallery.util.ComfyMetadataParser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * 无法识别格式的文本块，沿用原有的逐步猜测方式提取，优先级最低
+ * PNG 规范中的 Title、Software 等描述性关键字不包含提示词，不作处理
+ */
+@Slf4j
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class GenericTextFormat implements PromptFormat {
+    private static final Set<String> NON_PROMPT_KEYWORDS = Set.of("Title", "Author", "Copyright", "Creation Time",
+        "Software", "Disclaimer", "Warning", "Source", "Generation time", "XML:com.adobe.xmp");
+    
+    @Autowired
+    private ComfyMetadataParser comfyMetadataParser;
+    
+    @Override
+    public String getName() {
+        return "text";
+    }
+    
+    @Override
+    public boolean accepts(String keyword, String text) {
+        return !NON_PROMPT_KEYWORDS.contains(keyword);
+    }
+    
+    @Override
+    public String[] extract(String keyword, String text) {
+        String[] prompts = extractPrompts(text);
+        return PromptFormat.result(prompts[0], prompts[1]);
+    }
+    
+    /**
+     * 按原有的猜测顺序提取：先查找 JSON 按 ComfyUI 格式解析，再按纯文本切分，最后搜索负面提示词的标记
+     * @param metadata 文本块内容
+     */
+    private String[] extractPrompts(String metadata) {
+        String[] result = new String[]{"", ""};
+        
+        if (metadata == null || metadata.trim().isEmpty()) {
+            return result;
+        }
+        
+        try {
+            String trimmedMetadata = metadata.trim();
+            
+            // 处理各种特殊格式
+            String jsonData = preprocessMetadata(trimmedMetadata);
+            
+            // 首先尝试按 ComfyUI 的 workflow 或 prompt 格式流式解析
+            if (jsonData != null) {
+                String[] comfyResult = comfyMetadataParser.parse(jsonData);
+                if (comfyResult != null) {
+                    return comfyResult;
+                }
+            }
+            
+            // 最后尝试纯文本提取
+            try {
+                String[] plainTextResult = extractFromPlainText(metadata);
+                if (!plainTextResult[0].isEmpty() || !plainTextResult[1].isEmpty()) {
+                    return plainTextResult;
+                }
+            } catch (Exception e) {
+                log.warn("Failed to extract from plain text: {}", e.getMessage());
+            }
+            
+            // 如果上述方法都失败，尝试从原始字符串中搜索关键模式
+            return fallbackExtraction(metadata);
+            
+        } catch (Exception e) {
+            log.error("Error extracting prompts: {}", e.getMessage());
+            log.debug("Original metadata: {}", metadata);
+            return result;
+        }
+    }
+    
+    /**
+     * 预处理元数据，提取可能的 JSON 数据
+     */
+    private String preprocessMetadata(String metadata) {
+        try {
+            // 处理 [prompt: {...}] 或 [workflow: {...}] 格式
+            if (metadata.startsWith("[") && metadata.contains(":")) {
+                // 提取 JSON 部分
+                int start = metadata.indexOf('{');
+                int end = metadata.lastIndexOf('}');
+                if (start >= 0 && end > start) {
+                    return metadata.substring(start, end + 1);
+                }
+                else {
+                    if (metadata.contains("Description:")){
+                        return metadata.split("Description:")[1].replace("]", "");
+                    }
+                }
+            }
+            
+            // 处理 raw json 格式
+            if (metadata.startsWith("{") && metadata.endsWith("}")) {
+                return metadata;
+            }
+            
+            // 尝试在字符串中查找可能的 JSON 内容
+            int start = metadata.indexOf('{');
+            int end = metadata.lastIndexOf('}');
+            if (start >= 0 && end > start && (end - start) > 50) { // 至少要有足够长度才可能是 JSON
+                return metadata.substring(start, end + 1);
+            }
+            
+            return null;
+        } catch (Exception e) {
+            log.warn("Error preprocessing metadata: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 当所有方法都失败时的回退提取
+     */
+    private String[] fallbackExtraction(String metadata) {
+        try {
+            String positivePrompt = "";
+            String negativePrompt = "";
+            
+            // 查找常见的负面提示词标记
+            String[] negativeMarkers = {"Negative prompt:", "negative prompt:", "Negative Prompt:", "负面提示词:", "反向提示词:"};
+            
+            for (String marker : negativeMarkers) {
+                if (metadata.contains(marker)) {
+                    String[] parts = metadata.split(marker, 2);
+                    positivePrompt = parts[0].trim();
+                    if (parts.length > 1) {
+                        negativePrompt = parts[1].trim();
+                    }
+                    return new String[]{positivePrompt, negativePrompt};
+                }
+            }
+            
+            // 如果找不到明确的标记，尝试找含有常见负面关键词的部分
+            String[] commonNegativeTerms = {"lowres", "bad anatomy", "worst quality", "low quality"};
+            for (String term : commonNegativeTerms) {
+                if (metadata.contains(term)) {
+                    // 找到包含此术语的句子或段落
+                    int index = metadata.indexOf(term);
+                    // 向前找到句子开始
+                    int start = metadata.lastIndexOf(".", index);
+                    if (start == -1) start = 0; else start += 1;
+                    
+                    // 假设这个句子是负面提示词
+                    negativePrompt = metadata.substring(start).trim();
+                    positivePrompt = metadata.substring(0, start).trim();
+                    return new String[]{positivePrompt, negativePrompt};
+                }
+            }
+            
+            // 如果还是无法确定，就返回整个文本作为正面提示词
+            return new String[]{metadata.trim(), ""};
+        } catch (Exception e) {
+            log.warn("Error in fallback extraction: {}", e.getMessage());
+            return new String[]{"", ""};
+        }
+    }
+    
+    /**
+     * 从纯文本中提取提示词
+     */
+    private String[] extractFromPlainText(String text) {
+        String[] parts = text.split("Negative prompt:", 2);
+        
+        if (parts.length > 1) {
+            return new String[]{
+                parts[0].trim(),
+                parts[1].trim()
+            };
+        } else {
+            return new String[]{text.trim(), ""};
+        }
+    }
+}
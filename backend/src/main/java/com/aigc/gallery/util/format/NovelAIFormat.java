@@ -0,0 +1,49 @@
+package com.aigc.gallery.util.format;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * NovelAI 的 Comment 文本块，JSON 中 prompt / uc 为正面和负面提示词；
+ * V4 模型的提示词在 v4_prompt / v4_negative_prompt 的 caption.base_caption 中
+ */
+@Slf4j
+@Component
+@Order(2)
+public class NovelAIFormat implements PromptFormat {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String KEYWORD = "Comment";
+    
+    @Override
+    public String getName() {
+        return "NovelAI";
+    }
+    
+    @Override
+    public boolean accepts(String keyword, String text) {
+        return KEYWORD.equals(keyword) && PromptFormat.startsWithObject(text);
+    }
+    
+    @Override
+    public String[] extract(String keyword, String text) {
+        try {
+            JsonNode root = objectMapper.readTree(text);
+            String positive = root.path("prompt").asText("");
+            if (positive.isEmpty()) {
+                positive = root.path("v4_prompt").path("caption").path("base_caption").asText("");
+            }
+            String negative = root.path("uc").asText("");
+            if (negative.isEmpty()) {
+                negative = root.path("v4_negative_prompt").path("caption").path("base_caption").asText("");
+            }
+            return PromptFormat.result(positive, negative);
+        } catch (JsonProcessingException e) {
+            log.debug("Failed to parse NovelAI comment: {}", e.getMessage());
+            return null;
+        }
+    }
+}
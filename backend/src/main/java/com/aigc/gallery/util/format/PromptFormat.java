@@ -0,0 +1,44 @@
+package com.aigc.gallery.util.format;
+
+/**
+ * 提示词元数据格式
+ * 每个 PNG 文本块按关键字和开头的字符选出唯一一个接受它的格式解析，格式的 @Order 顺序即优先级
+ */
+public interface PromptFormat {
+    
+    /**
+     * 格式名称，记录在图片的 metadataFormat 上
+     */
+    String getName();
+    
+    /**
+     * 快速判断文本块是否为该格式，只检查关键字和开头的字符，不做解析
+     */
+    boolean accepts(String keyword, String text);
+    
+    /**
+     * 提取提示词
+     * @return [正面提示词, 负面提示词]，没有提示词时返回 null
+     */
+    String[] extract(String keyword, String text);
+    
+    /**
+     * 文本的第一个非空白字符是否为 {
+     */
+    static boolean startsWithObject(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 两个提示词都为空时返回 null
+     */
+    static String[] result(String positive, String negative) {
+        return positive.isEmpty() && negative.isEmpty() ? null : new String[]{positive, negative};
+    }
+}
@@ -0,0 +1,171 @@
+package com.aigc.gallery.repository;
+
+import com.aigc.gallery.model.CursorPage;
+import com.aigc.gallery.model.ImageInfo;
+import com.aigc.gallery.model.ImageSummary;
+import com.aigc.gallery.service.ImageScanService;
+import com.aigc.gallery.service.ImageServingCache;
+import com.aigc.gallery.service.ImageStoreService;
+import com.aigc.gallery.service.PromptIndexService;
+import com.aigc.gallery.service.TagCompletionService;
+import com.aigc.gallery.service.TagIndexService;
+import com.aigc.gallery.service.ThumbnailService;
+import com.aigc.gallery.service.impl.ImageServiceImpl;
+import com.aigc.gallery.util.FileFingerprint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 游标分页：创建时间相同的图片按ID倒序，逐页遍历不遗漏、不重复
+ */
+@DataJpaTest
+@Import(ImageServiceImpl.class)
+class ImageFeedPaginationTest {
+    private static final LocalDateTime DAY = LocalDateTime.of(2024, 5, 1, 0, 0);
+    
+    @Autowired
+    private ImageRepository imageRepository;
+    
+    @Autowired
+    private ImageServiceImpl imageService;
+    
+    @MockBean
+    private ImageScanService imageScanService;
+    @MockBean
+    private FileFingerprint fileFingerprint;
+    @MockBean
+    private ImageStoreService imageStoreService;
+    @MockBean
+    private ImageBatchWriter imageBatchWriter;
+    @MockBean
+    private ThumbnailService thumbnailService;
+    @MockBean
+    private TagIndexService tagIndexService;
+    @MockBean
+    private MetadataBlobStore metadataBlobStore;
+    @MockBean
+    private PromptIndexService promptIndexService;
+    @MockBean
+    private ImageServingCache imageServingCache;
+    @MockBean
+    private TagCompletionService tagCompletionService;
+    
+    private List<ImageInfo> images;
+    
+    @BeforeEach
+    void setUp() {
+        // 大部分图片的创建时间相同，并跨越页边界；带微秒的时间检验游标中时间的精度
+        images = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            LocalDateTime createTime;
+            if (i < 17) {
+                createTime = DAY.plusHours(10);
+            } else if (i < 30) {
+                createTime = DAY.plusHours(10).plusNanos(123_456_000);
+            } else if (i < 36) {
+                createTime = DAY.plusHours(23).plusMinutes(59).plusSeconds(59);
+            } else {
+                // 前一天，按日期查询时不应返回
+                createTime = DAY.minusHours(1);
+            }
+            images.add(image("image_" + i + ".png", createTime));
+        }
+        // 打乱写入顺序，使ID顺序与创建时间顺序不一致
+        List<ImageInfo> shuffled = new ArrayList<>(images);
+        Collections.shuffle(shuffled, new Random(42));
+        imageRepository.saveAllAndFlush(shuffled);
+    }
+    
+    @Test
+    void walksEveryPageWithoutSkippingOrRepeating() {
+        for (int size : new int[]{1, 4, 5, 13, 17, 40, 100}) {
+            assertEquals(expectedOrder(null), walk(null, size), "page size " + size);
+        }
+    }
+    
+    @Test
+    void walksEveryPageOfOneDay() {
+        for (int size : new int[]{1, 6, 17, 36}) {
+            assertEquals(expectedOrder(DAY.toLocalDate()), walk(DAY.toLocalDate(), size), "page size " + size);
+        }
+    }
+    
+    @Test
+    void breaksTiesOnEqualCreateTimeById() {
+        ImageInfo first = images.get(0);
+        List<Long> sameTime = images.subList(0, 17).stream()
+            .map(ImageInfo::getId)
+            .sorted(Comparator.reverseOrder())
+            .toList();
+        
+        // 从同一时间中间的一张图片之后继续，只返回ID更小的同时间图片和更早的图片
+        Long middle = sameTime.get(8);
+        List<Long> after = imageRepository.findSummariesBefore(LocalDateTime.of(1, 1, 1, 0, 0),
+                first.getCreateTime(), middle, PageRequest.of(0, 100)).stream()
+            .map(ImageSummary::getId)
+            .toList();
+        
+        assertEquals(sameTime.subList(9, 17), after.subList(0, 8));
+        assertEquals(4, after.size() - 8);
+    }
+    
+    @Test
+    void rejectsInvalidCursors() {
+        for (String cursor : new String[]{"not base64!", "bm90LWEtY3Vyc29y", "MjAyNC0wNS0wMVQxMDowMCx4"}) {
+            assertThrows(IllegalArgumentException.class, () -> imageService.getImageFeed(null, cursor, 10), cursor);
+        }
+        assertThrows(IllegalArgumentException.class, () -> imageService.getImageFeed(null, null, 0));
+    }
+    
+    /**
+     * 按游标逐页读取到最后一页
+     */
+    private List<Long> walk(LocalDate date, int size) {
+        List<Long> ids = new ArrayList<>();
+        Set<String> cursors = new HashSet<>();
+        String cursor = null;
+        do {
+            CursorPage<ImageSummary> page = imageService.getImageFeed(date, cursor, size);
+            assertTrue(page.getContent().size() <= size);
+            page.getContent().forEach(image -> ids.add(image.getId()));
+            cursor = page.getNextCursor();
+            if (cursor != null) {
+                assertEquals(size, page.getContent().size());
+                assertTrue(cursors.add(cursor), "cursor repeated: " + cursor);
+            }
+        } while (cursor != null);
+        return ids;
+    }
+    
+    private List<Long> expectedOrder(LocalDate date) {
+        return images.stream()
+            .filter(image -> date == null || image.getCreateTime().toLocalDate().equals(date))
+            .sorted(Comparator.comparing(ImageInfo::getCreateTime).thenComparing(ImageInfo::getId).reversed())
+            .map(ImageInfo::getId)
+            .toList();
+    }
+    
+    private static ImageInfo image(String fileName, LocalDateTime createTime) {
+        ImageInfo image = new ImageInfo();
+        image.setFileName(fileName);
+        image.setCreateTime(createTime);
+        return image;
+    }
+}
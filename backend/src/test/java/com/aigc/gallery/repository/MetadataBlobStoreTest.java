@@ -0,0 +1,119 @@
+package com.aigc.gallery.repository;
+
+import com.aigc.gallery.model.ImageInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataBlobStoreTest {
+    private static final String METADATA = "[prompt: {\"3\": {\"class_type\": \"KSampler\"}}]";
+    
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private MetadataBlobStore store;
+    private Map<String, MetadataBlobStore.Blob> blobs;
+    private String hash;
+    
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:metadata-blob;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000", "sa", "");
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        store = new MetadataBlobStore();
+        ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(store, "transactionManager", transactionManager);
+        
+        jdbcTemplate.execute("CREATE TABLE metadata_blob (hash VARCHAR(64) PRIMARY KEY, raw_size INT, data BLOB)");
+        jdbcTemplate.execute("CREATE TABLE image_info (id BIGINT PRIMARY KEY, metadata_hash VARCHAR(64))");
+        ImageInfo image = new ImageInfo();
+        image.setMetadata(METADATA);
+        blobs = store.prepare(List.of(image));
+        hash = image.getMetadataHash();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+    
+    @Test
+    void deleteWaitsForABatchThatReusesTheBlob() throws Exception {
+        // 元数据已存在且暂时没有引用，导入的批次跳过写入后，另一个事务在其提交前尝试删除
+        transactionTemplate.executeWithoutResult(status -> store.insert(blobs));
+        CountDownLatch inserted = new CountDownLatch(1);
+        CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            store.insert(blobs);
+            inserted.countDown();
+            sleep();
+            jdbcTemplate.update("INSERT INTO image_info VALUES (1, ?)", hash);
+        }));
+        
+        assertTrue(inserted.await(10, TimeUnit.SECONDS));
+        transactionTemplate.executeWithoutResult(status -> store.deleteUnreferenced(List.of(hash)));
+        batch.get(10, TimeUnit.SECONDS);
+        
+        assertEquals(METADATA, store.load(hash));
+    }
+    
+    @Test
+    void batchRewritesABlobDeletedConcurrently() throws Exception {
+        // 删除的事务先锁定并删除，导入的批次等其提交后重新写入
+        transactionTemplate.executeWithoutResult(status -> store.insert(blobs));
+        CountDownLatch deleted = new CountDownLatch(1);
+        CompletableFuture<Void> delete = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            store.deleteUnreferenced(List.of(hash));
+            deleted.countDown();
+            sleep();
+        }));
+        
+        assertTrue(deleted.await(10, TimeUnit.SECONDS));
+        transactionTemplate.executeWithoutResult(status -> {
+            store.insert(blobs);
+            jdbcTemplate.update("INSERT INTO image_info VALUES (1, ?)", hash);
+        });
+        delete.get(10, TimeUnit.SECONDS);
+        
+        assertEquals(METADATA, store.load(hash));
+    }
+    
+    @Test
+    void deletesOnlyUnreferencedBlobs() {
+        ImageInfo other = new ImageInfo();
+        other.setMetadata("[parameters: a cat]");
+        Map<String, MetadataBlobStore.Blob> otherBlobs = store.prepare(List.of(other));
+        transactionTemplate.executeWithoutResult(status -> {
+            store.insert(blobs);
+            store.insert(otherBlobs);
+            jdbcTemplate.update("INSERT INTO image_info VALUES (1, ?)", hash);
+        });
+        
+        transactionTemplate.executeWithoutResult(status ->
+            store.deleteUnreferenced(List.of(hash, other.getMetadataHash(), "missing")));
+        
+        assertEquals(METADATA, store.load(hash));
+        assertNull(store.load(other.getMetadataHash()));
+    }
+    
+    private static void sleep() {
+        try {
+            Thread.sleep(300);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.ImageInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptIndexServiceTest {
+    
+    private PromptIndexService index;
+    
+    @TempDir
+    Path tempDir;
+    
+    @BeforeEach
+    void setUp() {
+        index = new PromptIndexService();
+        index.index(List.of(
+            image(1, "blue sky, 1girl, smile", "lowres, bad hands"),
+            image(2, "blue hair, night sky, smiling", "lowres"),
+            image(3, "(blue_sky:1.2), 1girl, sky, sky", null),
+            image(4, "1boy, sunset", "blue sky, watermark"),
+            image(5, "masterpiece, 1girl, 1girl, 1girl, 1girl", "")
+        ));
+    }
+    
+    @Test
+    void phrasesRequireAdjacentWords() {
+        assertEquals(List.of(1L, 3L), search("\"blue sky\"", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(1L, 3L), search("blue_sky", PromptIndexService.Field.PROMPT));
+        // 不加引号的两个词分别匹配，不要求相邻
+        assertEquals(List.of(3L, 1L, 2L), search("blue sky", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(), search("\"sky blue\"", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(), search("unknown", PromptIndexService.Field.PROMPT));
+    }
+    
+    @Test
+    void prefixesMatchAnyTermStartingWithThem() {
+        assertEquals(List.of(1L, 2L), search("smil*", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(1L), search("smil* \"blue sky\"", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(), search("smilez*", PromptIndexService.Field.PROMPT));
+    }
+    
+    @Test
+    void ranksByTermFrequencyAndPromptLengthThenNewestFirst() {
+        // 5 中 1girl 出现四次；1 和 3 各一次，1 的提示词更短
+        assertEquals(List.of(5L, 1L, 3L), search("1girl", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(3L, 1L, 2L), search("sky", PromptIndexService.Field.PROMPT));
+        // 得分相同时ID大的在前
+        index.index(List.of(image(6, "1boy, sunset", null)));
+        assertEquals(List.of(6L, 4L), search("sunset", PromptIndexService.Field.PROMPT));
+        
+        PromptIndexService.Hits hits = index.search("1girl", PromptIndexService.Field.PROMPT, 1, 1);
+        assertEquals(List.of(1L), hits.ids());
+        assertEquals(3, hits.total());
+    }
+    
+    @Test
+    void searchesEitherFieldOrBothWithPromptHitsRankedFirst() {
+        assertEquals(List.of(4L), search("\"blue sky\"", PromptIndexService.Field.NEGATIVE));
+        assertEquals(List.of(2L, 1L), search("lowres", PromptIndexService.Field.NEGATIVE));
+        assertEquals(List.of(), search("lowres", PromptIndexService.Field.PROMPT));
+        // 同时搜索时正向提示词的命中权重更高
+        assertEquals(List.of(1L, 3L, 4L), search("\"blue sky\"", PromptIndexService.Field.ALL));
+        // 每个条件可以在任一字段命中
+        assertEquals(List.of(1L), search("smile hands", PromptIndexService.Field.ALL));
+    }
+    
+    @Test
+    void updatesAndRemovesIndexedImages() {
+        index.index(List.of(image(3, "sunset, 1girl", "blue sky")));
+        assertEquals(List.of(1L), search("\"blue sky\"", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(3L, 4L), search("\"blue sky\"", PromptIndexService.Field.NEGATIVE));
+        
+        index.remove(List.of(4L, 5L));
+        assertEquals(List.of(3L), search("sunset", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(3L, 1L), search("1girl", PromptIndexService.Field.PROMPT));
+        assertEquals(List.of(3L), search("\"blue sky\"", PromptIndexService.Field.NEGATIVE));
+    }
+    
+    @Test
+    void rejectsMalformedQueries() {
+        assertInvalid(null, "Query is empty");
+        assertInvalid("  ", "Query is empty");
+        assertInvalid("\"blue sky", "Unclosed quote in query");
+        assertInvalid("blue_sk*", "Prefix must be a single word: blue_sk*");
+        assertInvalid("1.2 ()", "Query has no searchable words");
+    }
+    
+    @Test
+    void loadsTheSnapshotSavedOnShutdownOnlyWhileItMatchesTheDatabase() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(
+            new DriverManagerDataSource("jdbc:h2:mem:prompt-index;DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("CREATE TABLE image_info (id BIGINT PRIMARY KEY, prompt CLOB, negative_prompt CLOB)");
+        jdbcTemplate.update("INSERT INTO image_info VALUES (1, 'blue sky, 1girl', 'lowres'), (2, 'sunset', NULL)");
+        Path snapshot = tempDir.resolve("prompt-index");
+        
+        index = service(jdbcTemplate, snapshot);
+        index.rebuild();
+        index.index(List.of(image(3, "1girl, 1girl, blue_sky", "watermark")));
+        jdbcTemplate.update("INSERT INTO image_info VALUES (3, '1girl, 1girl, blue_sky', 'watermark')");
+        index.remove(List.of(2L));
+        jdbcTemplate.update("DELETE FROM image_info WHERE id = 2");
+        index.saveSnapshot();
+        assertTrue(Files.exists(snapshot));
+        
+        // 快照中的内容与数据库不同时才能区分两种构建方式
+        jdbcTemplate.update("UPDATE image_info SET prompt = 'night' WHERE id = 1");
+        PromptIndexService restored = service(jdbcTemplate, snapshot);
+        restored.rebuild();
+        assertFalse(Files.exists(snapshot));
+        for (PromptIndexService.Field field : PromptIndexService.Field.values()) {
+            for (String query : List.of("\"blue sky\"", "1girl", "sun*", "watermark lowres", "1gir* sky")) {
+                assertEquals(index.search(query, field, 0, 10), restored.search(query, field, 0, 10));
+            }
+        }
+        assertEquals(List.of(), restored.search("night", PromptIndexService.Field.ALL, 0, 10).ids());
+        
+        // 图片数量变化后快照不再使用
+        restored.saveSnapshot();
+        jdbcTemplate.update("INSERT INTO image_info VALUES (4, 'sunset', NULL)");
+        PromptIndexService rebuilt = service(jdbcTemplate, snapshot);
+        rebuilt.rebuild();
+        assertEquals(List.of(1L), rebuilt.search("night", PromptIndexService.Field.ALL, 0, 10).ids());
+        assertEquals(List.of(4L), rebuilt.search("sunset", PromptIndexService.Field.ALL, 0, 10).ids());
+        
+        // 保存快照后索引又有更新时删除快照
+        rebuilt.saveSnapshot();
+        rebuilt.remove(List.of(4L));
+        assertFalse(Files.exists(snapshot));
+        jdbcTemplate.execute("DROP TABLE image_info");
+    }
+    
+    private static PromptIndexService service(JdbcTemplate jdbcTemplate, Path snapshot) {
+        PromptIndexService service = new PromptIndexService();
+        ReflectionTestUtils.setField(service, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(service, "snapshotPath", snapshot.toString());
+        return service;
+    }
+    
+    private void assertInvalid(String query, String message) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> index.search(query, PromptIndexService.Field.ALL, 0, 10));
+        assertEquals(message, e.getMessage());
+    }
+    
+    private List<Long> search(String query, PromptIndexService.Field field) {
+        return index.search(query, field, 0, 100).ids();
+    }
+    
+    private static ImageInfo image(long id, String prompt, String negativePrompt) {
+        ImageInfo image = new ImageInfo();
+        image.setId(id);
+        image.setPrompt(prompt);
+        image.setNegativePrompt(negativePrompt);
+        return image;
+    }
+}
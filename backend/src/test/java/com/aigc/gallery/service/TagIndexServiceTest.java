@@ -0,0 +1,211 @@
+package com.aigc.gallery.service;
+
+import com.aigc.gallery.model.ImageInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TagIndexServiceTest {
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 5, 1, 12, 0);
+    
+    private TagIndexService index;
+    
+    @BeforeEach
+    void setUp() {
+        index = new TagIndexService();
+        index.index(List.of(
+            image(1, 0, Set.of("1girl", "blue sky"), Set.of("foo")),
+            image(2, 1, Set.of("1girl", "sunset"), Set.of("bar")),
+            image(3, 2, Set.of("1boy", "blue sky"), Set.of()),
+            image(4, 3, Set.of("1girl", "rock AND roll", "(parenthesized)"), Set.of("foo")),
+            image(5, 4, Set.of("artist:literal"), Set.of()),
+            // 没有标签的图片也参与 NOT 运算
+            image(6, 5, Set.of(), Set.of())
+        ), List.of());
+    }
+    
+    @Test
+    void matchesTermsCaseInsensitivelyAndJoinsAdjacentWords() {
+        assertEquals(Set.of(1L, 2L, 4L), ids("1girl"));
+        assertEquals(Set.of(1L, 2L, 4L), ids("1GIRL"));
+        assertEquals(Set.of(1L, 3L), ids("blue sky"));
+        assertEquals(Set.of(1L, 3L), ids("  blue   sky "));
+        assertEquals(Set.of(), ids("blue"));
+        assertEquals(Set.of(), ids("unknown"));
+    }
+    
+    @Test
+    void artistPrefixLooksUpTheArtistIndex() {
+        assertEquals(Set.of(1L, 4L), ids("artist:foo"));
+        assertEquals(Set.of(1L, 4L), ids("ARTIST:Foo"));
+        assertEquals(Set.of(), ids("foo"));
+        // 引号内的 artist: 同样表示画师，名为 artist:literal 的普通标签无法通过前缀查到
+        assertEquals(Set.of(), ids("\"artist:literal\""));
+    }
+    
+    @Test
+    void quotedTermsMayContainOperatorsAndParentheses() {
+        assertEquals(Set.of(4L), ids("\"rock AND roll\""));
+        assertEquals(Set.of(4L), ids("\"(parenthesized)\""));
+        assertEquals(Set.of(), ids("rock AND roll"));
+    }
+    
+    @Test
+    void notBindsTighterThanAndWhichBindsTighterThanOr() {
+        // 1boy OR (1girl AND sunset)
+        assertEquals(Set.of(2L, 3L), ids("1boy OR 1girl AND sunset"));
+        // (NOT 1girl) AND blue sky
+        assertEquals(Set.of(3L), ids("NOT 1girl AND blue sky"));
+        // (NOT sunset) OR artist:bar，结果包含全部图片
+        assertEquals(Set.of(1L, 2L, 3L, 4L, 5L, 6L), ids("NOT sunset OR artist:bar"));
+        assertEquals(Set.of(1L, 4L), ids("1girl AND NOT sunset"));
+        assertEquals(Set.of(1L, 2L, 4L), ids("NOT NOT 1girl"));
+    }
+    
+    @Test
+    void parenthesesOverridePrecedence() {
+        assertEquals(Set.of(1L, 3L), ids("(1boy OR 1girl) AND blue sky"));
+        assertEquals(Set.of(3L, 5L, 6L), ids("NOT (1girl OR sunset)"));
+        assertEquals(Set.of(1L), ids("1girl AND (blue sky OR sunset) AND NOT artist:bar"));
+    }
+    
+    @Test
+    void notIsEvaluatedAgainstAllIndexedImages() {
+        assertEquals(Set.of(3L, 5L, 6L), ids("NOT 1girl"));
+        
+        index.remove(List.of(6L));
+        assertEquals(Set.of(3L, 5L), ids("NOT 1girl"));
+        
+        // 覆盖的图片移除原有标签，仍参与 NOT 运算
+        index.index(List.of(image(3, 2, Set.of("1girl"), Set.of())), List.of(3L));
+        assertEquals(Set.of(5L), ids("NOT 1girl"));
+        assertEquals(Set.of(1L), ids("blue sky"));
+    }
+    
+    @Test
+    void rejectsMalformedQueries() {
+        assertInvalid(null, "Query is empty");
+        assertInvalid("   ", "Query is empty");
+        assertInvalid("\"blue sky", "Unclosed quote in query");
+        assertInvalid("(1girl OR 1boy", "Missing closing parenthesis in query");
+        assertInvalid("1girl)", "Unexpected token in query: )");
+        assertInvalid("1girl AND", "Unexpected end of query");
+        assertInvalid("AND 1girl", "Unexpected token in query: AND");
+        assertInvalid("1girl OR OR 1boy", "Unexpected token in query: OR");
+        assertInvalid("()", "Unexpected token in query: )");
+        assertInvalid("NOT", "Unexpected end of query");
+    }
+    
+    @Test
+    void pagesByCreateTimeThenIdDescending() {
+        // 并行导入时ID与创建时间的顺序不一致，同一创建时间的按ID倒序
+        index.index(List.of(
+            image(9, 2, Set.of("page"), Set.of()),
+            image(7, 6, Set.of("page"), Set.of()),
+            image(8, 2, Set.of("page"), Set.of())
+        ), List.of());
+        RoaringBitmap all = index.query("NOT missing");
+        
+        assertEquals(List.of(7L, 6L, 5L, 4L, 9L, 8L, 3L, 2L, 1L), index.page(all, 0, 20));
+        assertEquals(List.of(4L, 9L, 8L), index.page(all, 3, 3));
+        assertEquals(List.of(), index.page(all, 9, 3));
+        assertEquals(List.of(7L, 9L, 8L), index.page(index.query("page"), 0, 5));
+        assertEquals(List.of(9L, 8L), index.page(index.query("page"), 1, 5));
+        
+        // 覆盖后创建时间变化，位置随之变化且不重复
+        index.index(List.of(image(1, 10, Set.of("1girl"), Set.of())), List.of(1L));
+        assertEquals(List.of(1L, 7L, 6L), index.page(all, 0, 3));
+        assertEquals(9, index.page(all, 0, 20).size());
+        
+        index.remove(List.of(7L));
+        assertEquals(List.of(1L, 6L, 5L), index.page(all, 0, 3));
+    }
+    
+    @Test
+    void pagesSelectiveAndDenseResultsAlike() {
+        // 分批导入、覆盖和删除后，稀少的标签（只对结果排序）和常见的标签（按顺序扫描）都与逐个排序的结果一致
+        index = new TagIndexService();
+        Random random = new Random(42);
+        Map<Long, ImageInfo> images = new HashMap<>();
+        for (int batch = 0; batch < 20; batch++) {
+            List<ImageInfo> added = new ArrayList<>();
+            List<Long> replaced = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                long id = random.nextInt(12_000) + (random.nextInt(20) == 0 ? 70_000L : 0L);
+                if (added.stream().anyMatch(image -> image.getId() == id)) {
+                    continue;
+                }
+                Set<String> tags = new HashSet<>();
+                tags.add("common");
+                if (random.nextInt(100) == 0) {
+                    tags.add("rare");
+                }
+                if (random.nextInt(3) == 0) {
+                    tags.add("third");
+                }
+                ImageInfo image = image(id, random.nextInt(300), tags, Set.of());
+                if (images.put(id, image) != null) {
+                    replaced.add(id);
+                }
+                added.add(image);
+            }
+            index.index(added, replaced);
+            
+            List<Long> removed = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                removed.add((long) random.nextInt(12_000));
+            }
+            index.remove(removed);
+            removed.forEach(images::remove);
+        }
+        
+        for (String query : List.of("rare", "third", "common", "rare OR NOT common", "NOT third")) {
+            RoaringBitmap ids = index.query(query);
+            List<Long> expected = images.values().stream()
+                .filter(image -> ids.contains(image.getId().intValue()))
+                .sorted(Comparator.comparing(ImageInfo::getCreateTime).thenComparing(ImageInfo::getId).reversed())
+                .map(ImageInfo::getId)
+                .toList();
+            for (int offset : new int[]{0, 7, 100, expected.size() / 2, expected.size() - 3, expected.size()}) {
+                for (int size : new int[]{1, 20, 1000}) {
+                    List<Long> page = expected.subList(Math.max(0, Math.min(offset, expected.size())),
+                        Math.max(0, Math.min(offset + size, expected.size())));
+                    assertEquals(page, index.page(ids, Math.max(0, offset), size), query + " " + offset + " " + size);
+                }
+            }
+        }
+    }
+    
+    private void assertInvalid(String query, String message) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> index.query(query));
+        assertEquals(message, e.getMessage());
+    }
+    
+    private Set<Long> ids(String query) {
+        Set<Long> ids = new TreeSet<>();
+        index.query(query).forEach((int id) -> ids.add((long) id));
+        return ids;
+    }
+    
+    private static ImageInfo image(long id, int minutes, Set<String> tags, Set<String> artists) {
+        ImageInfo image = new ImageInfo();
+        image.setId(id);
+        image.setCreateTime(T0.plusMinutes(minutes));
+        image.setTags(tags);
+        image.setArtists(artists);
+        return image;
+    }
+}
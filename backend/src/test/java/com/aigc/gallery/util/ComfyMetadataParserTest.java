@@ -0,0 +1,362 @@
+package com.aigc.gallery.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式解析与原来基于 JsonNode 的 extractFromComfyWorkflow / extractFromComfyPrompt 结果一致
+ */
+class ComfyMetadataParserTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    
+    private static final String[] NODE_TYPES = {
+        "KSampler", "KSampler", "CLIPTextEncode", "CLIPTextEncode", "CLIPTextEncode",
+        "ConditioningCombine", "ConditioningSetArea", "CheckpointLoaderSimple", ""
+    };
+    
+    private final ComfyMetadataParser parser = new ComfyMetadataParser();
+    
+    @Test
+    void workflowSamplesMatchTreeModel() {
+        for (String json : List.of(
+            // 两个 KSampler，负面提示词经过 ConditioningCombine
+            """
+            {"last_node_id": 9, "nodes": [
+              {"id": 3, "type": "KSampler", "inputs": {"model": ["4", 0], "positive": ["6", 0], "negative": ["8", 0]},
+               "widgets_values": [156680208700286, "randomize", 20, 8, "euler", "normal", 1]},
+              {"id": 4, "type": "CheckpointLoaderSimple", "widgets_values": ["v1-5-pruned-emaonly.safetensors"]},
+              {"id": 6, "type": "CLIPTextEncode", "inputs": {"clip": ["4", 1]},
+               "widgets_values": ["masterpiece, 1girl, (blue sky:1.2)"]},
+              {"id": 7, "type": "CLIPTextEncode", "inputs": {"clip": ["4", 1]}, "widgets_values": ["lowres, bad anatomy"]},
+              {"id": 8, "type": "ConditioningCombine", "inputs": {"conditioning_1": ["9", 0], "conditioning_2": ["7", 0]}},
+              {"id": 9, "type": "ConditioningSetArea", "inputs": {"conditioning": [null, 0]}},
+              {"id": "10", "type": "KSampler", "inputs": {"positive": [7, 0], "negative": ["missing", 0]}}
+            ], "links": [[1, 4, 0, 3, 0, "MODEL"]], "version": 0.4}
+            """,
+            // 编辑器布局：inputs 为数组，没有 positive / negative 连接
+            """
+            {"nodes": [
+              {"id": 3, "type": "KSampler", "inputs": [{"name": "positive", "type": "CONDITIONING", "link": 4}]},
+              {"id": 6, "type": "CLIPTextEncode", "widgets_values": ["a cat"]}
+            ]}
+            """,
+            // 连接到缺少 widgets_values 的 CLIPTextEncode 节点
+            """
+            {"nodes": [
+              {"id": 1, "type": "KSampler", "inputs": {"positive": ["2", 0], "negative": ["3", 0]}},
+              {"id": 2, "type": "CLIPTextEncode", "widgets_values": ["a cat"]},
+              {"id": 3, "type": "CLIPTextEncode"}
+            ]}
+            """,
+            """
+            {"nodes": [
+              {"id": 1, "type": "KSampler", "inputs": {"positive": ["2", 0]}},
+              {"id": 2, "type": "CLIPTextEncode", "widgets_values": []}
+            ]}
+            """,
+            // 标量的类型各不相同
+            """
+            {"nodes": [
+              {"id": 1.0, "type": "KSampler", "inputs": {"positive": [2, 0], "negative": [{"id": 3}, 0]}},
+              {"id": 2, "type": "CLIPTextEncode", "widgets_values": [1.50]},
+              {"id": null, "type": "CLIPTextEncode", "widgets_values": [null]},
+              {"id": "", "type": "CLIPTextEncode", "widgets_values": [true]},
+              {"id": 1, "type": "KSampler", "inputs": {"positive": [1.0, 0], "negative": ["4", 0]}},
+              {"id": 4, "type": "CLIPTextEncode", "widgets_values": [{"text": "x"}]}
+            ]}
+            """,
+            """
+            {"nodes": []}
+            """
+        )) {
+            assertArrayEquals(TreeModel.extractFromComfyWorkflow(json), parser.parse(json), json);
+        }
+    }
+    
+    @Test
+    void promptSamplesMatchTreeModel() {
+        for (String json : List.of(
+            """
+            {"3": {"inputs": {"seed": 1, "model": ["4", 0], "positive": ["6", 0], "negative": ["7", 0]}, "class_type": "KSampler"},
+             "4": {"inputs": {"ckpt_name": "v1-5-pruned-emaonly.safetensors"}, "class_type": "CheckpointLoaderSimple"},
+             "6": {"inputs": {"text": "masterpiece, 1girl", "clip": ["4", 1]}, "class_type": "CLIPTextEncode"},
+             "7": {"class_type": "CLIPTextEncode", "inputs": {"clip": ["4", 1], "text": "lowres, bad anatomy"}}}
+            """,
+            // 没有 clip 连接的 CLIPTextEncode 不计入；第三个覆盖负面提示词
+            """
+            {"1": {"class_type": "CLIPTextEncode", "inputs": {"text": "ignored", "clip": []}},
+             "2": {"class_type": "CLIPTextEncode", "inputs": {"text": "ignored", "clip": "4"}},
+             "3": {"class_type": "CLIPTextEncode", "inputs": {"text": "first", "clip": ["4", 1]}},
+             "4": {"class_type": "CLIPTextEncode", "inputs": {"text": "second", "clip": ["4", 1]}},
+             "5": {"class_type": "CLIPTextEncode", "inputs": {"text": "third", "clip": ["4", 1]}},
+             "extra": 1, "list": [1, 2]}
+            """,
+            // 正面提示词为空时，下一个仍作为正面提示词
+            """
+            {"1": {"class_type": "CLIPTextEncode", "inputs": {"text": "", "clip": ["4", 1]}},
+             "2": {"class_type": "CLIPTextEncode", "inputs": {"text": 12, "clip": [null]}},
+             "3": {"class_type": "CLIPTextEncode", "inputs": {"text": {"a": 1}, "clip": ["4", 1]}}}
+            """
+        )) {
+            assertArrayEquals(TreeModel.extractFromComfyPrompt(json), parser.parse(json), json);
+        }
+    }
+    
+    @Test
+    void randomWorkflowsMatchTreeModel() {
+        Random random = new Random(42);
+        int compared = 0;
+        for (int i = 0; i < 5000; i++) {
+            String json = randomWorkflow(random);
+            String[] expected;
+            try {
+                expected = TreeModel.extractFromComfyWorkflow(json);
+            } catch (StackOverflowError e) {
+                // 重复的节点ID可能形成循环，见 cyclicConditioningChainDoesNotOverflow
+                continue;
+            }
+            assertArrayEquals(expected, parser.parse(json), json);
+            compared++;
+        }
+        assertTrue(compared > 4500, "compared " + compared);
+    }
+    
+    @Test
+    void randomPromptsMatchTreeModel() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            String json = randomPrompt(random);
+            assertArrayEquals(TreeModel.extractFromComfyPrompt(json), parser.parse(json), json);
+        }
+    }
+    
+    /**
+     * 循环连接时原来的实现递归到栈溢出，流式解析跳过已访问的节点
+     */
+    @Test
+    void cyclicConditioningChainDoesNotOverflow() {
+        String json = """
+            {"nodes": [
+              {"id": 1, "type": "KSampler", "inputs": {"positive": ["2", 0], "negative": ["4", 0]}},
+              {"id": 2, "type": "ConditioningCombine", "inputs": {"a": ["3", 0], "b": ["4", 0]}},
+              {"id": 3, "type": "ConditioningSetArea", "inputs": {"conditioning": ["2", 0]}},
+              {"id": 4, "type": "CLIPTextEncode", "widgets_values": ["lowres"]}
+            ]}
+            """;
+        
+        assertThrows(StackOverflowError.class, () -> TreeModel.extractFromComfyWorkflow(json));
+        assertArrayEquals(new String[]{"lowres", "lowres"}, parser.parse(json));
+    }
+    
+    /**
+     * 随机 workflow，连接只指向之前的节点，只有重复的节点ID会形成循环
+     */
+    private static String randomWorkflow(Random random) {
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode nodes = root.putArray("nodes");
+        int count = random.nextInt(12);
+        for (int i = 0; i < count; i++) {
+            ObjectNode node = nodes.addObject();
+            switch (random.nextInt(10)) {
+                case 0 -> { }
+                case 1 -> node.put("id", String.valueOf(random.nextInt(count)));
+                case 2 -> node.putNull("id");
+                default -> node.put("id", i);
+            }
+            node.put("type", NODE_TYPES[random.nextInt(NODE_TYPES.length)]);
+            
+            if (random.nextInt(4) == 0) {
+                // 编辑器布局
+                ArrayNode inputs = node.putArray("inputs");
+                inputs.addObject().put("name", "positive").put("link", random.nextInt(count));
+            } else if (random.nextInt(8) != 0) {
+                ObjectNode inputs = node.putObject("inputs");
+                for (String name : new String[]{"positive", "negative", "conditioning", "clip"}) {
+                    if (random.nextBoolean()) {
+                        inputs.set(name, randomLink(random, i));
+                    }
+                }
+                if (random.nextInt(5) == 0) {
+                    inputs.put("seed", random.nextLong());
+                }
+            }
+            
+            switch (random.nextInt(8)) {
+                case 0 -> { }
+                case 1 -> node.putArray("widgets_values");
+                case 2 -> node.putNull("widgets_values");
+                case 3 -> node.putArray("widgets_values").add(random.nextInt(100) / 4.0);
+                case 4 -> node.putArray("widgets_values").addObject().put("text", "x");
+                default -> node.putArray("widgets_values").add("prompt " + i).add(20).add("euler");
+            }
+        }
+        return root.toString();
+    }
+    
+    private static JsonNode randomLink(Random random, int index) {
+        ArrayNode link = objectMapper.createArrayNode();
+        switch (random.nextInt(16)) {
+            case 0 -> { }
+            case 1 -> link.addNull();
+            case 2 -> link.add("missing");
+            case 3, 4 -> link.add(index > 0 ? random.nextInt(index) : 0);
+            default -> link.add(String.valueOf(index > 0 ? random.nextInt(index) : -1));
+        }
+        link.add(random.nextInt(2));
+        return link;
+    }
+    
+    private static String randomPrompt(Random random) {
+        ObjectNode root = objectMapper.createObjectNode();
+        int count = random.nextInt(8);
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(10) == 0) {
+                root.put(String.valueOf(i), i);
+                continue;
+            }
+            ObjectNode node = root.putObject(String.valueOf(i));
+            node.put("class_type", random.nextInt(3) == 0 ? "KSampler" : "CLIPTextEncode");
+            ObjectNode inputs = node.putObject("inputs");
+            switch (random.nextInt(5)) {
+                case 0 -> { }
+                case 1 -> inputs.put("text", "");
+                default -> inputs.put("text", "prompt " + i);
+            }
+            switch (random.nextInt(4)) {
+                case 0 -> { }
+                case 1 -> inputs.putArray("clip");
+                default -> inputs.putArray("clip").add("4").add(1);
+            }
+        }
+        // 至少有一个 class_type，否则不是 prompt 格式
+        root.putObject("loader").put("class_type", "CheckpointLoaderSimple");
+        return root.toString();
+    }
+    
+    /**
+     * 原来基于 JsonNode 的实现，作为对照
+     */
+    private static class TreeModel {
+        
+        static String[] extractFromComfyWorkflow(String json) {
+            try {
+                JsonNode root = objectMapper.readTree(json);
+                JsonNode nodes = root.path("nodes");
+                
+                List<String> positivePrompts = new ArrayList<>();
+                List<String> negativePrompts = new ArrayList<>();
+                
+                if (nodes.isArray()) {
+                    Map<String, JsonNode> nodeMap = new HashMap<>();
+                    for (JsonNode node : nodes) {
+                        String nodeId = node.path("id").asText("");
+                        if (!nodeId.isEmpty()) {
+                            nodeMap.put(nodeId, node);
+                        }
+                    }
+                    
+                    for (JsonNode node : nodes) {
+                        String nodeType = node.path("type").asText("");
+                        if ("KSampler".equals(nodeType)) {
+                            JsonNode inputs = node.path("inputs");
+                            String positiveNodeId = getNodeIdFromInput(inputs.path("positive"));
+                            String negativeNodeId = getNodeIdFromInput(inputs.path("negative"));
+                            
+                            if (positiveNodeId != null) {
+                                String prompt = extractPromptFromConditioningChain(positiveNodeId, nodeMap);
+                                if (prompt != null && !prompt.isEmpty()) {
+                                    positivePrompts.add(prompt);
+                                }
+                            }
+                            
+                            if (negativeNodeId != null) {
+                                String prompt = extractPromptFromConditioningChain(negativeNodeId, nodeMap);
+                                if (prompt != null && !prompt.isEmpty()) {
+                                    negativePrompts.add(prompt);
+                                }
+                            }
+                        }
+                    }
+                }
+                
+                return new String[]{
+                    String.join(", ", positivePrompts),
+                    String.join(", ", negativePrompts)
+                };
+            } catch (Exception e) {
+                return new String[]{"", ""};
+            }
+        }
+        
+        private static String getNodeIdFromInput(JsonNode input) {
+            if (input.isArray() && input.size() > 0) {
+                return input.get(0).asText();
+            }
+            return null;
+        }
+        
+        private static String extractPromptFromConditioningChain(String nodeId, Map<String, JsonNode> nodeMap) {
+            JsonNode node = nodeMap.get(nodeId);
+            if (node == null) return null;
+            
+            String nodeType = node.path("type").asText("");
+            
+            if ("CLIPTextEncode".equals(nodeType)) {
+                return node.path("widgets_values").get(0).asText("");
+            }
+            
+            JsonNode inputs = node.path("inputs");
+            for (JsonNode input : inputs) {
+                String inputNodeId = getNodeIdFromInput(input);
+                if (inputNodeId != null) {
+                    String prompt = extractPromptFromConditioningChain(inputNodeId, nodeMap);
+                    if (prompt != null && !prompt.isEmpty()) {
+                        return prompt;
+                    }
+                }
+            }
+            
+            return null;
+        }
+        
+        static String[] extractFromComfyPrompt(String json) {
+            try {
+                JsonNode root = objectMapper.readTree(json);
+                String positivePrompt = "";
+                String negativePrompt = "";
+                
+                for (JsonNode node : root) {
+                    String classType = node.path("class_type").asText("");
+                    if ("CLIPTextEncode".equals(classType)) {
+                        JsonNode inputs = node.path("inputs");
+                        String text = inputs.path("text").asText("");
+                        
+                        JsonNode clipInput = inputs.path("clip");
+                        if (clipInput.isArray() && clipInput.size() > 0) {
+                            if (positivePrompt.isEmpty()) {
+                                positivePrompt = text;
+                            } else {
+                                negativePrompt = text;
+                            }
+                        }
+                    }
+                }
+                
+                return new String[]{positivePrompt, negativePrompt};
+            } catch (Exception e) {
+                return new String[]{"", ""};
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.aigc.gallery.util;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.lang.KeyValuePair;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.png.PngDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PngTextReaderTest {
+    
+    private final PngTextReader reader = new PngTextReader();
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void decodesAllTextChunkTypesLikeMetadataExtractor() throws Exception {
+        Path path = write("types.png", new PngBuilder(640, 480)
+            .text("parameters", "a cat, sunny\nNegative prompt: ugly\nSteps: 20")
+            .text("Comment", "café crème")
+            .compressedText("Description", "zTXt latin-1 text é")
+            .internationalText("prompt", "{\"text\": \"樱花, 1girl\"}", false)
+            .internationalText("workflow", "{\"nodes\": [], \"note\": \"夜空\"}", true)
+            .build());
+        
+        PngTextReader.PngText text = reader.read(path);
+        
+        assertNotNull(text);
+        assertEquals(640, text.width());
+        assertEquals(480, text.height());
+        assertEquals(metadataExtractorChunks(path), text.chunks());
+        assertEquals("樱花", text.chunks().get(3).text().substring(10, 12));
+    }
+    
+    @Test
+    void readsChunksLargerThanTheWindow() throws Exception {
+        // 第一个文本块跨过 64KB 窗口边界，第二个文本块本身大于窗口
+        Path path = write("large.png", new PngBuilder(64, 64)
+            .text("prompt", "{\"a\": 1}, ".repeat(7000))
+            .internationalText("workflow", "节点 node, ".repeat(30000), false)
+            .compressedText("Comment", "compressed, ".repeat(20000))
+            .build());
+        
+        PngTextReader.PngText text = reader.read(path);
+        
+        assertNotNull(text);
+        assertEquals(3, text.chunks().size());
+        assertTrue(text.chunks().get(1).text().length() > 64 * 1024);
+        assertEquals(metadataExtractorChunks(path), text.chunks());
+    }
+    
+    @Test
+    void skipsCompressedTextThatInflatesPastTheLimit() throws Exception {
+        // 约 20KB 的压缩数据解压后为 20MB
+        Path path = write("bomb.png", new PngBuilder(32, 32)
+            .text("parameters", "a cat")
+            .compressedText("Comment", "\0".repeat(20 * 1024 * 1024))
+            .internationalText("workflow", "\0".repeat(20 * 1024 * 1024), true)
+            .internationalText("prompt", "{}", true)
+            .build());
+        assertTrue(Files.size(path) < 100 * 1024);
+        
+        PngTextReader.PngText text = reader.read(path);
+        
+        assertNotNull(text);
+        assertEquals(List.of(new PngTextReader.TextChunk("parameters", "a cat"),
+            new PngTextReader.TextChunk("prompt", "{}")), text.chunks());
+    }
+    
+    @Test
+    void returnsDimensionsWithoutChunksWhenNoTextPrecedesImageData() throws Exception {
+        // IDAT 之前没有文本块时不再完整解析文件
+        PngTextReader.PngText plain = reader.read(write("plain.png", new PngBuilder(8, 6).build()));
+        assertEquals(new PngTextReader.PngText(8, 6, List.of()), plain);
+        // IDAT 之后的文本块不读取
+        PngTextReader.PngText trailing = reader.read(write("trailing.png",
+            new PngBuilder(8, 6).textAfterData("parameters", "a dog").build()));
+        assertEquals(new PngTextReader.PngText(8, 6, List.of()), trailing);
+    }
+    
+    @Test
+    void returnsNullSoCallersFallBackToMetadataExtractor() throws Exception {
+        // 不是 PNG
+        assertNull(reader.read(write("not.png", "GIF89a not a png".getBytes(StandardCharsets.US_ASCII))));
+        // 文件在文本块中间被截断
+        byte[] complete = new PngBuilder(8, 8).text("parameters", "truncated, ".repeat(100)).build();
+        assertNull(reader.read(write("truncated.png", Arrays.copyOf(complete, 200))));
+        // 文件不存在
+        assertNull(reader.read(tempDir.resolve("missing.png")));
+    }
+    
+    private Path write(String name, byte[] data) throws Exception {
+        Path path = tempDir.resolve(name);
+        Files.write(path, data);
+        return path;
+    }
+    
+    /**
+     * metadata-extractor 解析出的文本块（回退路径的结果），按文件中的顺序
+     */
+    private static List<PngTextReader.TextChunk> metadataExtractorChunks(Path path) throws Exception {
+        Metadata metadata = ImageMetadataReader.readMetadata(path.toFile());
+        List<PngTextReader.TextChunk> chunks = new ArrayList<>();
+        for (Directory directory : metadata.getDirectories()) {
+            if (directory instanceof PngDirectory pngDirectory
+                && pngDirectory.getObject(PngDirectory.TAG_TEXTUAL_DATA) instanceof List<?> pairs) {
+                for (Object pair : pairs) {
+                    chunks.add(PngTextReader.TextChunk.of(pngDirectory.getPngChunkType(), (KeyValuePair) pair));
+                }
+            }
+        }
+        return chunks;
+    }
+    
+    /**
+     * 按 PNG 规范拼接数据块，图像数据为全黑的 RGB 图片
+     */
+    private static class PngBuilder {
+        private final int width;
+        private final int height;
+        private final ByteArrayOutputStream before = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream after = new ByteArrayOutputStream();
+        
+        PngBuilder(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+        
+        PngBuilder text(String keyword, String text) {
+            chunk(before, "tEXt", concat(latin1(keyword), new byte[]{0}, latin1(text)));
+            return this;
+        }
+        
+        PngBuilder textAfterData(String keyword, String text) {
+            chunk(after, "tEXt", concat(latin1(keyword), new byte[]{0}, latin1(text)));
+            return this;
+        }
+        
+        PngBuilder compressedText(String keyword, String text) {
+            chunk(before, "zTXt", concat(latin1(keyword), new byte[]{0, 0}, deflate(latin1(text))));
+            return this;
+        }
+        
+        PngBuilder internationalText(String keyword, String text, boolean compressed) {
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            chunk(before, "iTXt", concat(latin1(keyword), new byte[]{0, (byte) (compressed ? 1 : 0), 0},
+                latin1("en"), new byte[]{0}, new byte[]{0}, compressed ? deflate(utf8) : utf8));
+            return this;
+        }
+        
+        byte[] build() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+            chunk(out, "IHDR", ByteBuffer.allocate(13).putInt(width).putInt(height)
+                .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0).array());
+            out.writeBytes(before.toByteArray());
+            chunk(out, "IDAT", deflate(new byte[height * (width * 3 + 1)]));
+            out.writeBytes(after.toByteArray());
+            chunk(out, "IEND", new byte[0]);
+            return out.toByteArray();
+        }
+        
+        private static void chunk(ByteArrayOutputStream out, String type, byte[] data) {
+            byte[] typeAndData = concat(latin1(type), data);
+            CRC32 crc = new CRC32();
+            crc.update(typeAndData);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(data.length).array());
+            out.writeBytes(typeAndData);
+            out.writeBytes(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+        }
+        
+        private static byte[] latin1(String value) {
+            return value.getBytes(StandardCharsets.ISO_8859_1);
+        }
+        
+        private static byte[] deflate(byte[] data) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            return out.toByteArray();
+        }
+        
+        private static byte[] concat(byte[]... parts) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] part : parts) {
+                out.writeBytes(part);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.aigc.gallery.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class TagProcessorTest {
+    
+    private final TagProcessor tagProcessor = new TagProcessor();
+    
+    static Stream<Arguments> prompts() {
+        return Stream.of(
+            arguments("1girl, solo, blue sky", Set.of("1girl", "solo", "blue sky")),
+            // 权重括号，可任意嵌套
+            arguments("((masterpiece)), [[lowres]], {best quality}", Set.of("masterpiece", "lowres", "best quality")),
+            arguments("(((1girl, (red eyes), [smile])))", Set.of("1girl", "red eyes", "smile")),
+            arguments("((detailed eyes:1.1):0.9), (((from above)))", Set.of("detailed eyes", "from above")),
+            // 括号内的权重数值
+            arguments("(masterpiece:1.2), (best quality: 1.4), [blurry:-0.5], (sharp:.8)",
+                Set.of("masterpiece", "best quality", "blurry", "sharp")),
+            // 括号外的权重数值
+            arguments("flower:1.2, solo:0.9\nsmile:1", Set.of("flower", "solo", "smile")),
+            // 不是权重的冒号保留
+            arguments("re:zero, artist:, score:high", Set.of("re:zero", "artist:", "score:high")),
+            // 转义的括号属于标签本身
+            arguments("kaguya \\(kancolle\\), (hatsune miku \\(cosplay\\):1.1), 1girl",
+                Set.of("kaguya (kancolle)", "hatsune miku (cosplay)", "1girl")),
+            arguments("trailing backslash \\", Set.of("trailing backslash")),
+            // 换行也是分隔符
+            arguments("1girl\nsolo\r\nsmile,\n\nlong hair", Set.of("1girl", "solo", "smile", "long hair")),
+            // 尖括号内容和 BREAK 不是标签
+            arguments("<lora:detail_tweaker:0.8> 1girl, BREAK, solo\nBREAK\n<hypernet:foo:1>",
+                Set.of("1girl", "solo")),
+            arguments("1girl BREAK solo", Set.of("1girl BREAK solo")),
+            arguments("a <unclosed, b", Set.of("a <unclosed", "b")),
+            // 空白合并
+            arguments("  multiple \t  spaces  ,  trimmed ,, ,", Set.of("multiple spaces", "trimmed")),
+            arguments("", Set.of()),
+            arguments("  \n ", Set.of()),
+            arguments(null, Set.of())
+        );
+    }
+    
+    @ParameterizedTest
+    @MethodSource("prompts")
+    void extractsTags(String prompt, Set<String> expected) {
+        assertEquals(expected, tagProcessor.extractTags(prompt));
+    }
+    
+    static Stream<Arguments> artistPrompts() {
+        return Stream.of(
+            arguments("artist:foo, 1girl", Set.of("foo"), Set.of("1girl")),
+            arguments("(artist:bar:1.2), [artist:baz], 1girl, solo", Set.of("bar", "baz"), Set.of("1girl", "solo")),
+            arguments("ARTIST: Qux\nArtist:quux:0.8", Set.of("Qux", "quux"), Set.of()),
+            arguments("artist:, the artist:foo", Set.of(), Set.of("artist:", "the artist:foo")),
+            arguments("artist:kaguya \\(kancolle\\)", Set.of("kaguya (kancolle)"), Set.of())
+        );
+    }
+    
+    @ParameterizedTest
+    @MethodSource("artistPrompts")
+    void extractsArtists(String prompt, Set<String> expectedArtists, Set<String> expectedTags) {
+        Set<String> tags = new HashSet<>(tagProcessor.extractTags(prompt));
+        
+        assertEquals(expectedArtists, tagProcessor.extractArtists(tags));
+        assertEquals(expectedTags, tags);
+    }
+    
+    @Test
+    void sharesCanonicalInstances() {
+        String first = tagProcessor.extractTags("long hair").iterator().next();
+        String second = tagProcessor.extractTags("(long hair:1.2)").iterator().next();
+        
+        assertSame(first, second);
+    }
+}
@@ -0,0 +1,66 @@
+package com.aigc.gallery.benchmark;
+
+import com.aigc.gallery.util.PngTextReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 基准测试用的样本元数据，文件在 resources/payloads 下，随代码一起提交以便不同版本之间对比结果
+ */
+public enum Payloads {
+    // inputs 为命名连接的 workflow，提示词从 KSampler 追踪到 CLIPTextEncode
+    COMFY_WORKFLOW("workflow", "comfy-workflow.json"),
+    // 编辑器保存的 workflow，inputs 为数组、连接在顶层 links 表里，当前解析取不到提示词
+    COMFY_WORKFLOW_EDITOR("workflow", "comfy-workflow-editor.json"),
+    COMFY_PROMPT("prompt", "comfy-prompt.json"),
+    A1111("parameters", "a1111.txt"),
+    NOVELAI("Comment", "novelai.json");
+    
+    private final String keyword;
+    private final String file;
+    
+    Payloads(String keyword, String file) {
+        this.keyword = keyword;
+        this.file = file;
+    }
+    
+    /**
+     * PNG 文本块的关键字
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+    
+    public String text() {
+        try (InputStream in = Payloads.class.getResourceAsStream("/payloads/" + file)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing payload: " + file);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * 生成该格式的图片实际写入的文本块；ComfyUI 图片同时带 prompt 和 workflow 两个文本块，
+     * ComfyUI 保存的 workflow 为编辑器格式
+     */
+    public List<PngTextReader.TextChunk> chunks() {
+        return switch (this) {
+            case COMFY_PROMPT, COMFY_WORKFLOW, COMFY_WORKFLOW_EDITOR -> List.of(
+                new PngTextReader.TextChunk(COMFY_PROMPT.keyword, COMFY_PROMPT.text()),
+                new PngTextReader.TextChunk(COMFY_WORKFLOW.keyword, (this == COMFY_PROMPT ? COMFY_WORKFLOW_EDITOR : this).text()));
+            case NOVELAI -> List.of(
+                new PngTextReader.TextChunk("Title", "AI generated image"),
+                new PngTextReader.TextChunk("Software", "NovelAI"),
+                new PngTextReader.TextChunk("Source", "NovelAI Diffusion V3 4BDE2A90"),
+                new PngTextReader.TextChunk(keyword, text()));
+            default -> List.of(new PngTextReader.TextChunk(keyword, text()));
+        };
+    }
+}
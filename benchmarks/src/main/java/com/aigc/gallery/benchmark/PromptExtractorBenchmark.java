@@ -0,0 +1,49 @@
+package com.aigc.gallery.benchmark;
+
+import com.aigc.gallery.util.PngTextReader;
+import com.aigc.gallery.util.PromptExtractor;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个文本块的提示词提取，覆盖各格式的解析开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PromptExtractorBenchmark {
+    
+    @Param({"COMFY_WORKFLOW", "COMFY_WORKFLOW_EDITOR", "COMFY_PROMPT", "A1111", "NOVELAI"})
+    private Payloads payload;
+    
+    private AnnotationConfigApplicationContext context;
+    private PromptExtractor promptExtractor;
+    private List<PngTextReader.TextChunk> chunks;
+    
+    @Setup
+    public void setup() {
+        context = new AnnotationConfigApplicationContext("com.aigc.gallery.util");
+        promptExtractor = context.getBean(PromptExtractor.class);
+        // COMFY_WORKFLOW_EDITOR 取不到提示词，测的是完整扫描的开销
+        chunks = List.of(new PngTextReader.TextChunk(payload.getKeyword(), payload.text()));
+        if (payload == Payloads.COMFY_WORKFLOW && promptExtractor.extract(chunks).prompt().isEmpty()) {
+            throw new IllegalStateException("No prompt extracted from " + payload);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+    
+    @Benchmark
+    public PromptExtractor.Result extract() {
+        return promptExtractor.extract(chunks);
+    }
+}
@@ -0,0 +1,66 @@
+package com.aigc.gallery.benchmark;
+
+import com.aigc.gallery.util.PngTextReader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * 生成基准测试用的 PNG 图片
+ */
+public final class SampleImages {
+    // PNG 签名(8) + IHDR 块(4+4+13+4)
+    private static final int IHDR_END = 33;
+    
+    private SampleImages() {
+    }
+    
+    /**
+     * 渐变加噪点的 RGB 图片，压缩后的大小接近生成图；文本块以 tEXt 写在 IHDR 之后
+     */
+    public static byte[] png(int width, int height, List<PngTextReader.TextChunk> chunks) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = (r + g) / 2 + random.nextInt(32);
+                image.setRGB(x, y, (r << 16) | (g << 8) | Math.min(b, 255));
+            }
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", encoded);
+        byte[] bytes = encoded.toByteArray();
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 16384);
+        out.write(bytes, 0, IHDR_END);
+        for (PngTextReader.TextChunk chunk : chunks) {
+            byte[] keyword = chunk.keyword().getBytes(StandardCharsets.ISO_8859_1);
+            byte[] text = chunk.text().getBytes(StandardCharsets.ISO_8859_1);
+            ByteBuffer data = ByteBuffer.allocate(4 + keyword.length + 1 + text.length);
+            data.put("tEXt".getBytes(StandardCharsets.ISO_8859_1)).put(keyword).put((byte) 0).put(text);
+            writeChunk(out, data.array());
+        }
+        out.write(bytes, IHDR_END, bytes.length - IHDR_END);
+        return out.toByteArray();
+    }
+    
+    /**
+     * @param typeAndData 块类型和数据，CRC 覆盖这两部分
+     */
+    private static void writeChunk(ByteArrayOutputStream out, byte[] typeAndData) {
+        CRC32 crc = new CRC32();
+        crc.update(typeAndData);
+        out.writeBytes(ByteBuffer.allocate(4).putInt(typeAndData.length - 4).array());
+        out.writeBytes(typeAndData);
+        out.writeBytes(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+}
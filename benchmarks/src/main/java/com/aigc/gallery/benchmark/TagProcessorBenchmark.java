@@ -0,0 +1,47 @@
+package com.aigc.gallery.benchmark;
+
+import com.aigc.gallery.util.PromptExtractor;
+import com.aigc.gallery.util.TagProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从各格式样本提取出的正面提示词上切分标签和提取画师
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TagProcessorBenchmark {
+    
+    @Param({"COMFY_PROMPT", "A1111", "NOVELAI"})
+    private Payloads payload;
+    
+    private TagProcessor tagProcessor;
+    private String prompt;
+    private Set<String> tags;
+    
+    @Setup
+    public void setup() {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext("com.aigc.gallery.util")) {
+            tagProcessor = context.getBean(TagProcessor.class);
+            prompt = context.getBean(PromptExtractor.class).extract(payload.chunks()).prompt();
+        }
+        tags = tagProcessor.extractTags(prompt);
+    }
+    
+    @Benchmark
+    public Set<String> extractTags() {
+        return tagProcessor.extractTags(prompt);
+    }
+    
+    @Benchmark
+    public Set<String> extractArtists() {
+        return tagProcessor.extractArtists(tags);
+    }
+}
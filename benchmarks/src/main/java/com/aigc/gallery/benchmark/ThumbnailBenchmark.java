@@ -0,0 +1,74 @@
+package com.aigc.gallery.benchmark;
+
+import com.aigc.gallery.service.ThumbnailService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同分辨率源图片的缩略图生成（ImageServiceImpl.generateThumbnail 直接委托给 ThumbnailService.generate）
+ * 每次调用使用新的缩略图文件名并在调用后删除，避免命中已有缩略图
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThumbnailBenchmark {
+    
+    // 源图片宽度，高度按 2:3 竖图计算
+    @Param({"1024", "2048", "4096"})
+    private int width;
+    
+    private AnnotationConfigApplicationContext context;
+    private ThumbnailService thumbnailService;
+    private Path directory;
+    private Path source;
+    private int sequence;
+    private String thumbnailPath;
+    
+    @Setup
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("benchmark-thumbnails-");
+        source = directory.resolve("source.png");
+        Files.write(source, SampleImages.png(width, width * 3 / 2, List.of()));
+        
+        context = new AnnotationConfigApplicationContext();
+        // 与应用一致，支持 1GB / 7d 这类配置值
+        context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark",
+            Map.of("gallery.cache.directory", directory.resolve("cache").toString())));
+        context.register(ThumbnailService.class);
+        context.refresh();
+        thumbnailService = context.getBean(ThumbnailService.class);
+        if (thumbnailService.generate(source, ThumbnailService.nameFor("check")) == null) {
+            throw new IllegalStateException("Thumbnail generation failed for " + source);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws Exception {
+        context.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+    
+    @TearDown(Level.Invocation)
+    public void deleteThumbnail() throws Exception {
+        thumbnailService.delete(thumbnailPath);
+    }
+    
+    @Benchmark
+    public String generate() {
+        thumbnailPath = thumbnailService.generate(source, ThumbnailService.nameFor("bench_" + sequence++));
+        return thumbnailPath;
+    }
+}
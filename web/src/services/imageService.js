@@ -17,6 +17,34 @@ export const imageService = {
     })
   },
   
+  // 获取时间线（按天或按月统计的图片数量）
+  getTimeline(granularity = 'day') {
+    return axios.get(`${API_BASE_URL}/timeline`, {
+      params: { granularity }
+    })
+  },
+  
+  // 分页获取某一天的图片
+  getImagesOfDate(date, page = 0, size = 20) {
+    return axios.get(`${API_BASE_URL}/by-date/${date}`, {
+      params: { page, size }
+    })
+  },
+  
+  // 游标分页获取图片，date 为空时返回全部，cursor 为上一页返回的 nextCursor
+  getImageFeed({ date, cursor, size = 20 } = {}) {
+    return axios.get(`${API_BASE_URL}/feed`, {
+      params: { date, cursor, size }
+    })
+  },
+  
+  // 统计图片数量，date 为空时统计全部
+  countImages(date) {
+    return axios.get(`${API_BASE_URL}/count`, {
+      params: { date }
+    })
+  },
+  
   // 按标签获取图片
   getImagesByTag(page = 0, size = 20) {
     return axios.get(`${API_BASE_URL}/by-tag`, {
@@ -41,6 +69,13 @@ export const imageService = {
     return axios.get(`${API_BASE_URL}/artists`)
   },
   
+  // 标签或画师名称的前缀补全，按使用次数排序，type 为 tag 或 artist
+  completeTags(prefix = '', type = 'tag', limit = 10) {
+    return axios.get(`${API_BASE_URL}/tags/complete`, {
+      params: { prefix, type, limit }
+    })
+  },
+  
   // 按标签搜索图片
   searchByTags(tags, page = 0, size = 20) {
     return axios.get(`${API_BASE_URL}/search`, {
@@ -52,6 +87,13 @@ export const imageService = {
     })
   },
   
+  // 全文搜索提示词，field 为 prompt、negative 或 all
+  searchPrompts(q, field = 'all', page = 0, size = 20) {
+    return axios.get(`${API_BASE_URL}/search/prompt`, {
+      params: { q, in: field, page, size }
+    })
+  },
+  
   // 获取图片详情
   getImageDetail(id) {
     return axios.get(`${API_BASE_URL}/${id}`)
@@ -119,9 +161,9 @@ export const imageService = {
   },
   
   // 添加扫描目录
-  addScanDirectory(path, description = '') {
+  addScanDirectory(path, description = '', storageMode = 'COPY') {
     return axios.post(`${API_BASE_URL}/directories`, null, {
-      params: { path, description }
+      params: { path, description, storageMode }
     })
   },
   
@@ -130,8 +172,42 @@ export const imageService = {
     return axios.delete(`${API_BASE_URL}/directories/${id}`)
   },
   
-  // 重新扫描目录
+  // 开启或关闭目录监听
+  setDirectoryWatch(id, enabled) {
+    return axios.put(`${API_BASE_URL}/directories/${id}/watch`, null, {
+      params: { enabled }
+    })
+  },
+  
+  // 重新扫描目录（返回后台扫描任务）
   rescanDirectory(id) {
     return axios.post(`${API_BASE_URL}/directories/${id}/rescan`)
+  },
+  
+  // 获取扫描任务列表
+  getScanJobs() {
+    return axios.get(`${API_BASE_URL}/scan-jobs`)
+  },
+  
+  // 获取扫描任务状态
+  getScanJob(jobId) {
+    return axios.get(`${API_BASE_URL}/scan-jobs/${jobId}`)
+  },
+  
+  // 取消扫描任务
+  cancelScanJob(jobId) {
+    return axios.delete(`${API_BASE_URL}/scan-jobs/${jobId}`)
+  },
+  
+  // 订阅扫描任务进度，任务结束后自动关闭连接
+  watchScanJob(jobId, onProgress, onDone) {
+    const source = new EventSource(`${API_BASE_URL}/scan-jobs/${jobId}/events`)
+    source.addEventListener('progress', (event) => onProgress(JSON.parse(event.data)))
+    source.addEventListener('done', (event) => {
+      source.close()
+      onDone(JSON.parse(event.data))
+    })
+    source.onerror = () => source.close()
+    return source
   }
 } 
\ No newline at end of file